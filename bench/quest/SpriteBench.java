@@ -0,0 +1,31 @@
+package quest;
+
+import java.awt.image.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * Decoding and colour-keying shipped sprite sheets from their PNGs, as
+ * Sprite.decode() does for the SpriteCache. Goes straight to decode(), so
+ * the cache never turns an op into a lookup.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpriteBench {
+	
+	@Param({ "tilesets/lawnring.png", "tilesets/lawnring_hive.png",
+			 "walksprites/karkat.png", "walksprites/crabdad.png" })
+	public String file;
+	
+	@Benchmark
+	public BufferedImage decode()
+	{
+		return Sprite.decode( Game.SPRITEPATH+file);
+	}
+}
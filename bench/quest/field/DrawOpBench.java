@@ -0,0 +1,71 @@
+package quest.field;
+
+import quest.*;
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * DrawOp submission, sort and flush of a frame's worth of ops, with
+ * random positions and depths. One op in eight is a walksprite frame;
+ * the rest are tiles.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DrawOpBench {
+	
+	@Param({ "100", "500", "2000" })
+	public int ops;
+	
+	private DrawOp op;
+	private Sprite tileset, walksprite;
+	private Graphics g;
+	private int[] x, y, depth;
+	
+	@Setup
+	public void setup()
+	{
+		op = new DrawOp();
+		g = new BufferedImage( Game.SCREENW, Game.SCREENH, BufferedImage.TYPE_INT_ARGB).getGraphics();
+		
+		tileset = new Sprite( Game.SPRITEPATH+"tilesets/lawnring.png");
+		tileset.sliceFrames( Room.TILEW, Room.TILEH, 0, 0, 1, 1);
+		walksprite = new Sprite( Game.SPRITEPATH+"walksprites/karkat.png");
+		walksprite.sliceFrames( walksprite.getRawWidth()/4, walksprite.getRawHeight(), 0, 0, 4, 20);
+		
+		Random rand = new Random( 1);
+		x = new int[ops]; y = new int[ops]; depth = new int[ops];
+		for( int i=0; i<ops; i++)
+		{
+			x[i] = rand.nextInt( Game.SCREENW);
+			y[i] = rand.nextInt( Game.SCREENH);
+			depth[i] = -y[i] + rand.nextInt( 48) - 24;
+		}
+	}
+	
+	@TearDown
+	public void tearDown()
+	{
+		g.dispose();
+	}
+	
+	@Benchmark
+	public void flush()
+	{
+		for( int i=0; i<ops; i++)
+		{
+			if ( (i&7) == 0 ) op.drawSprite( walksprite, x[i], y[i], depth[i], i&3);
+			else op.drawTile( tileset, x[i], y[i], depth[i], i&7, (i>>3)&7);
+		}
+		
+		op.flush( g, 0, 0);
+	}
+}
@@ -0,0 +1,52 @@
+package quest.field;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * FlowField.setTarget() on each shipped room, moving the target to a
+ * different random walkable tile every op so the field is always
+ * searched again. This is the cost of the player stepping onto a new
+ * tile while enemies are chasing.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlowFieldBench {
+	
+	private FlowField field;
+	private int[] tx = new int[256], ty = new int[256];
+	private int next = 0;
+	
+	@Setup
+	public void setup( ShippedRoom shipped)
+	{
+		Walkmap walkmap = new Room( shipped.getPath()).getWalkmap();
+		field = new FlowField( walkmap);
+		
+		Random rand = new Random( 1);
+		for( int i=0; i<tx.length; i++)
+		{
+			do {
+				tx[i] = rand.nextInt( walkmap.getWidth());
+				ty[i] = rand.nextInt( walkmap.getHeight());
+			} while ( walkmap.getTile( tx[i], ty[i]) != 0 || (i > 0 && tx[i] == tx[i-1] && ty[i] == ty[i-1]) );
+		}
+	}
+	
+	@Benchmark
+	public int search()
+	{
+		int i = next;
+		next = (next+1)%tx.length;
+		
+		field.setTarget( tx[i], ty[i]);
+		return field.directionFrom( tx[(i+7)%tx.length], ty[(i+7)%ty.length]);
+	}
+}
@@ -0,0 +1,35 @@
+package quest.field;
+
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * Constructing each shipped room from its NQR file. Its sprites stay in
+ * the SpriteCache between ops, so this doesn't include decoding them.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoomBench {
+	
+	private String path;
+	
+	@Setup
+	public void setup( ShippedRoom shipped)
+	{
+		path = shipped.getPath();
+	}
+	
+	@Benchmark
+	public Room load()
+	{
+		Room room = new Room( path);
+		room.release();
+		return room;
+	}
+}
@@ -0,0 +1,80 @@
+package quest.field;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * Running a room's object scripts from start to finish, inside a
+ * FieldModule which has that room loaded: "npcScripts" runs every NPC's
+ * script, "objectScripts" every doodad's and trigger's. Scripts can move
+ * actors around, so later ops may take different paths through the
+ * walkmap than earlier ones did. Rooms with no scripts of a kind run none.
+ * 
+ * Each script is run through once while setting up, and left out if that
+ * throws; one of wilderness16's has a WAIT that isn't followed by a number.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScriptBench {
+	
+	static final int MAXSTEPS = 100000;
+	
+	private List<String> npcScripts = new ArrayList<String>();
+	private List<String> objectScripts = new ArrayList<String>();
+	
+	@Setup
+	public void setup( ShippedRoom shipped)
+	{
+		FieldModule module = new FieldModule( shipped.getPath());
+		
+		for( RObject obj : module.getRoom().getObjectList())
+		{
+			if ( obj instanceof RNPC ) add( npcScripts, ((RNPC)obj).script);
+			if ( obj instanceof RDoodad ) add( objectScripts, ((RDoodad)obj).script);
+			if ( obj instanceof RTrigger ) add( objectScripts, ((RTrigger)obj).script);
+		}
+	}
+	
+	private static void add( List<String> scripts, String script)
+	{
+		if ( script == null || script.isEmpty() ) return;
+		
+		try {
+			run( Collections.singletonList( script));
+		} catch ( RuntimeException ex ) { System.out.println( "Leaving out a script which fails: " + ex); return; }
+		
+		scripts.add( script);
+	}
+	
+	@Benchmark
+	public int npcScripts()
+	{
+		return run( npcScripts);
+	}
+	
+	@Benchmark
+	public int objectScripts()
+	{
+		return run( objectScripts);
+	}
+	
+	private static int run( List<String> scripts)
+	{
+		int steps = 0;
+		for( String script : scripts)
+		{
+			FieldScript fs = new FieldScript( script);
+			int n = 0;
+			while ( fs.run() && n < MAXSTEPS ) n++;
+			steps += n;
+		}
+		return steps;
+	}
+}
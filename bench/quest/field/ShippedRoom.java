@@ -0,0 +1,30 @@
+package quest.field;
+
+import quest.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * Every room under quest/data, as a parameter for the benchmarks which
+ * are run once per room. They take it in their @Setup methods. A subset
+ * can be picked on the command line, eg -p room=lawnring.nqr,wilderness11.nqr
+ */
+
+@State(Scope.Benchmark)
+public class ShippedRoom {
+	
+	@Param({ "lawnring.nqr", "lawnring_khive_bathroom.nqr", "lawnring_khive_bedroom.nqr",
+			 "lawnring_khive_corridor.nqr", "lawnring_khive_lobby.nqr",
+			 "wilderness1.nqr", "wilderness2.nqr", "wilderness3.nqr", "wilderness3a.nqr",
+			 "wilderness4.nqr", "wilderness5.nqr", "wilderness5a.nqr", "wilderness6.nqr",
+			 "wilderness7.nqr", "wilderness7a.nqr", "wilderness8.nqr", "wilderness9.nqr",
+			 "wilderness10.nqr", "wilderness11.nqr", "wilderness12.nqr", "wilderness13.nqr",
+			 "wilderness14.nqr", "wilderness15.nqr", "wilderness15a.nqr", "wilderness16.nqr",
+			 "wilderness17.nqr" })
+	public String room;
+	
+	public String getPath()
+	{
+		return Game.DATAPATH+room;
+	}
+}
@@ -0,0 +1,71 @@
+package quest.field;
+
+import java.awt.*;
+
+/*
+ * An exhaustive check of Walkmap's slope masks against the floating-point
+ * slope geometry they were built from. Rerun it after changing Walkmap:
+ *
+ *   javac --release 8 -cp nepetaquest.jar -d out $(find source bench -name '*.java')
+ *   java -cp out:nepetaquest.jar quest.field.SlopeMaskCheck
+ *
+ * For every tile type, an entity of every size up to MAXSIZE is placed at
+ * every pixel offset from which it could touch the tile, and
+ * Walkmap.doesIntersectTile() is compared with the original test: the
+ * intersection of the two rectangles, relative to the tile, handed to
+ * Walkmap.slopeCovers(). Exits with status 1 at the first disagreement.
+ */
+
+public class SlopeMaskCheck {
+	
+	public static final int MAXSIZE = 2*Room.TILEW + 6;
+	
+	public static void main( String[] args)
+	{
+		long checked = 0;
+		
+		for( int type=0; type<16; type++)
+		{
+			//a single tile of the type, with solid ground around it
+			byte[][] src = new byte[3][3];
+			src[1][1] = (byte)type;
+			Walkmap walkmap = new Walkmap( src);
+			
+			for( int tw=0; tw<=MAXSIZE; tw++)
+			for( int th=0; th<=MAXSIZE; th++)
+			for( int x=Room.TILEW-MAXSIZE; x<2*Room.TILEW+MAXSIZE; x++)
+			for( int y=Room.TILEH-MAXSIZE; y<2*Room.TILEH+MAXSIZE; y++)
+			{
+				boolean expected = originalIntersectsTile( type, 1, 1, x, y, tw, th);
+				boolean actual = walkmap.doesIntersectTile( 1, 1, x, y, tw, th);
+				
+				if ( expected != actual )
+				{
+					System.out.println( "mismatch: tile type " + type + ", " + tw + "x" + th + " entity centred on ("
+						+ x + "," + y + "): expected " + expected + ", got " + actual);
+					System.exit(1);
+				}
+				checked++;
+			}
+		}
+		
+		System.out.println( "slope masks agree with the original geometry in all " + checked + " cases");
+	}
+	
+	/*
+	 * Walkmap.doesIntersectTile() as it was before the masks, for a
+	 * tile of the given type.
+	 */
+	
+	private static boolean originalIntersectsTile( int type, int tx, int ty, int x, int y, int tw, int th)
+	{
+		Rectangle rectTile = new Rectangle( tx*Room.TILEW, ty*Room.TILEH, Room.TILEW, Room.TILEH);
+		Rectangle rectEntity = new Rectangle( x-tw/2, y-th/2, tw, th);
+		
+		if ( rectTile.intersects(rectEntity) == false ) return false;
+		Rectangle rect = rectTile.intersection(rectEntity);
+		rect.x -= rectTile.x; rect.y -= rectTile.y;
+		
+		return Walkmap.slopeCovers( type, rect);
+	}
+}
@@ -0,0 +1,71 @@
+package quest.field;
+
+import quest.*;
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * A frame's worth of tile rendering, at viewports spread across each
+ * room. "drawTo" pushes every tile through the DrawOp; "chunkCache" blits
+ * the ground chunks and only pushes the overlay tiles, as FieldModule does.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TilemapBench {
+	
+	@Param({ "drawTo", "chunkCache" })
+	public String path;
+	
+	private Room room;
+	private DrawOp op;
+	private Graphics g;
+	private List<Point> viewports = new ArrayList<Point>();
+	private int next = 0;
+	
+	@Setup
+	public void setup( ShippedRoom shipped)
+	{
+		room = new Room( shipped.getPath());
+		op = new DrawOp();
+		g = new BufferedImage( Game.SCREENW, Game.SCREENH, BufferedImage.TYPE_INT_ARGB).getGraphics();
+		
+		//viewports on a grid across the room, including partially outside it
+		for( int y=-Game.SCREENH/2; y<=room.getPixelHeight()-Game.SCREENH/2; y+=37)
+		for( int x=-Game.SCREENW/2; x<=room.getPixelWidth()-Game.SCREENW/2; x+=41)
+		viewports.add( new Point( x, y));
+	}
+	
+	@TearDown
+	public void tearDown()
+	{
+		g.dispose();
+		room.release();
+	}
+	
+	@Benchmark
+	public void frame()
+	{
+		Point v = viewports.get( next);
+		next = (next+1)%viewports.size();
+		
+		if ( path.equals("chunkCache") )
+		{
+			room.getTileCache().drawTo( g, v.x, v.y);
+			op.setGround( room.getTilemap(), room.getTileset());
+			room.getTilemap().drawOverlayTo( op, room.getTileset(), v.x, v.y);
+		}
+		else room.getTilemap().drawTo( op, room.getTileset(), v.x, v.y);
+		
+		op.flush( g, v.x, v.y);
+	}
+}
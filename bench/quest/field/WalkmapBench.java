@@ -0,0 +1,86 @@
+package quest.field;
+
+import quest.*;
+import java.awt.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * Walkmap.moveAgainst(), with a player-sized box stepping in a random
+ * direction from a random walkable tile of lawnring. "open" uses the
+ * room's walk data with no collision rects at all; "crowded" uses the
+ * room as loaded (doodads, NPCs) plus a crowd of extra actor-sized rects.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WalkmapBench {
+	
+	static final int PROBES = 1024, CROWD = 64;
+	
+	@Param({ "open", "crowded" })
+	public String layout;
+	
+	private Walkmap walkmap;
+	private int[] px = new int[PROBES], py = new int[PROBES];
+	private int[] vx = new int[PROBES], vy = new int[PROBES];
+	private int next = 0;
+	
+	@Setup
+	public void setup()
+	{
+		Walkmap source = new Room( Game.DATAPATH+"lawnring.nqr").getWalkmap();
+		int w = source.getWidth(), h = source.getHeight();
+		Random rand = new Random( 1);
+		boolean crowded = layout.equals("crowded");
+		
+		if ( crowded ) walkmap = source;
+		else
+		{
+			byte[][] src = new byte[w][h];
+			for( int x=0; x<w; x++)
+			for( int y=0; y<h; y++)
+			src[x][y] = (byte)((source.getSlope(x,y)<<4) | source.getTile(x,y));
+			
+			walkmap = new Walkmap( src);
+		}
+		
+		//pick walkable start points
+		int[] dx = { 0, 1, 0, -1 }, dy = { -1, 0, 1, 0 };
+		for( int i=0; i<PROBES; i++)
+		{
+			int tx, ty;
+			do {
+				tx = rand.nextInt( w);
+				ty = rand.nextInt( h);
+			} while ( source.getTile( tx, ty) != 0 );
+			
+			int dir = rand.nextInt( 4);
+			px[i] = tx*Room.TILEW + Room.TILEW/2;
+			py[i] = ty*Room.TILEH + Room.TILEH/2;
+			vx[i] = dx[dir]*Actor.MOVESPEED*4;
+			vy[i] = dy[dir]*Actor.MOVESPEED*4;
+		}
+		
+		if ( crowded )
+		for( int i=0; i<CROWD; i++)
+		{
+			walkmap.registerRect( new Rectangle( rand.nextInt( w*Room.TILEW), rand.nextInt( h*Room.TILEH), 18, 12));
+		}
+	}
+	
+	@Benchmark
+	public Point moveAgainst()
+	{
+		int i = next;
+		next = (next+1)%PROBES;
+		
+		return walkmap.moveAgainst( px[i], py[i], 18, 12, vx[i], vy[i], -1);
+	}
+}
@@ -0,0 +1,229 @@
+package quest;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/*
+ * Read access to the game's resources, from a single archive file if
+ * there is one, and from loose resources on the classpath if not.
+ *
+ * The archive (built by AssetPacker) is memory-mapped once, and read
+ * straight out of the mapping from then on. It starts with a hashed table
+ * of contents, so finding a file is a hash and usually a single probe into
+ * the mapped table; nothing is parsed into objects when it's opened. Every
+ * file's data starts on a page boundary. get() hands out a slice of the
+ * mapping, with no copying; getStream() wraps that slice in an InputStream,
+ * for code that wants one, and getBuffer() falls back on reading a loose
+ * file into memory, for code that wants a buffer either way.
+ *
+ * The layout, all big-endian:
+ *
+ *   header:  int magic ("NQA1"), int table slots (a power of two),
+ *            int offset of the names, int length of the names
+ *   table:   per slot: int hash, int name offset, int name length
+ *            (0 for an empty slot), int data offset, int data length
+ *   names:   every filepath, in ISO-8859-1, relative to the quest package
+ *            ("sprites/doodads/tree.png")
+ *   data:    each file, starting on a PAGE boundary
+ *
+ * A filepath's slot is found from its String.hashCode(), and collisions
+ * are resolved by probing the following slots in turn.
+ *
+ * mount() opens a particular archive (Game's -archive option); otherwise
+ * DEFAULT_FILE is looked for in the working directory the first time a
+ * file is asked for. Filepaths are given as they would be to
+ * Class.getResource() from this package: absolute ("/quest/...") or
+ * relative to quest.
+ */
+
+public class AssetArchive {
+	
+	public static final String DEFAULT_FILE = "quest.nqa";
+	
+	static final int MAGIC = 0x4E514131;
+	static final int HEADER = 16, SLOT = 20, PAGE = 4096;
+	
+	private static final String ROOT = "/quest/";
+	
+	private static ByteBuffer archive = null;
+	private static int slots, namesOffset;
+	private static boolean looked = false;
+	
+	/*
+	 * Maps the given archive, and reads from it from now on. Returns false
+	 * if it can't be opened, in which case loose resources are used.
+	 */
+	
+	public static synchronized boolean mount( String filename)
+	{
+		looked = true;
+		archive = null;
+		
+		try {
+			
+			RandomAccessFile file = new RandomAccessFile( filename, "r");
+			FileChannel channel = file.getChannel();
+			ByteBuffer map = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			channel.close();
+			file.close();
+			
+			if ( map.getInt(0) != MAGIC ) throw new IOException( filename + " isn't an asset archive");
+			
+			slots = map.getInt(4);
+			namesOffset = map.getInt(8);
+			archive = map;
+			return true;
+		
+		} catch ( IOException ioe ) { ioe.printStackTrace(); return false; }
+	}
+	
+	public static synchronized boolean isMounted()
+	{
+		return getArchive() != null;
+	}
+	
+	/*
+	 * Returns the contents of the given file as a read-only buffer onto
+	 * the archive, or null if there's no archive or it isn't in it.
+	 */
+	
+	public static ByteBuffer get( String filepath)
+	{
+		ByteBuffer map = getArchive();
+		if ( map == null ) return null;
+		
+		String name = relative( filepath);
+		int hash = name.hashCode();
+		
+		for( int probe=0; probe<slots; probe++)
+		{
+			int slot = HEADER + ((hash + probe) & (slots-1)) * SLOT;
+			int nameLength = map.getInt( slot+8);
+			if ( nameLength == 0 ) return null;
+			
+			if ( map.getInt( slot) == hash && nameEquals( map, map.getInt( slot+4), nameLength, name) )
+			{
+				int offset = map.getInt( slot+12);
+				ByteBuffer data = map.duplicate();
+				data.position( offset);
+				data.limit( offset + map.getInt( slot+16));
+				return data.slice();
+			}
+		}
+		
+		return null;
+	}
+	
+	/*
+	 * Returns a stream of the given file, from the archive if it's there
+	 * and from the classpath if not, or null if it can't be found at all.
+	 * Streams from the archive support mark() and reset().
+	 */
+	
+	public static InputStream getStream( String filepath)
+	{
+		ByteBuffer data = get( filepath);
+		if ( data != null ) return new SliceStream( data);
+		
+		return AssetArchive.class.getResourceAsStream( filepath);
+	}
+	
+	/*
+	 * Returns the whole of the given file in a buffer: a slice of the
+	 * archive if it's there, and otherwise read in from the classpath.
+	 * Returns null if it can't be found at all.
+	 */
+	
+	public static ByteBuffer getBuffer( String filepath) throws IOException
+	{
+		ByteBuffer data = get( filepath);
+		if ( data != null ) return data;
+		
+		InputStream stream = AssetArchive.class.getResourceAsStream( filepath);
+		if ( stream == null ) return null;
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream( 16384);
+		byte[] buf = new byte[8192];
+		int n;
+		while( (n = stream.read( buf)) > 0 ) bytes.write( buf, 0, n);
+		stream.close();
+		
+		return ByteBuffer.wrap( bytes.toByteArray());
+	}
+	
+	private static synchronized ByteBuffer getArchive()
+	{
+		if ( !looked )
+		{
+			looked = true;
+			if ( new File( DEFAULT_FILE).isFile() ) mount( DEFAULT_FILE);
+		}
+		return archive;
+	}
+	
+	/*
+	 * The archive's name for a filepath: relative to the quest package,
+	 * without any doubled-up slashes.
+	 */
+	
+	static String relative( String filepath)
+	{
+		if ( filepath.startsWith( ROOT) ) filepath = filepath.substring( ROOT.length());
+		while( filepath.contains( "//") ) filepath = filepath.replace( "//", "/");
+		return filepath;
+	}
+	
+	private static boolean nameEquals( ByteBuffer map, int offset, int length, String name)
+	{
+		if ( length != name.length() ) return false;
+		
+		offset += namesOffset;
+		for( int i=0; i<length; i++)
+		{
+			if ( (map.get( offset+i) & 0xff) != name.charAt(i) ) return false;
+		}
+		return true;
+	}
+	
+	/*
+	 * An InputStream over a slice of the archive.
+	 */
+	
+	private static class SliceStream extends InputStream {
+		
+		private ByteBuffer data;
+		
+		SliceStream( ByteBuffer data)
+		{
+			this.data = data;
+		}
+		
+		public int read()
+		{
+			return data.hasRemaining() ? data.get() & 0xff : -1;
+		}
+		
+		public int read( byte[] b, int off, int len)
+		{
+			if ( len == 0 ) return 0;
+			if ( !data.hasRemaining() ) return -1;
+			
+			len = Math.min( len, data.remaining());
+			data.get( b, off, len);
+			return len;
+		}
+		
+		public long skip( long n)
+		{
+			int skipped = (int) Math.max( 0, Math.min( n, data.remaining()));
+			data.position( data.position() + skipped);
+			return skipped;
+		}
+		
+		public int available() { return data.remaining(); }
+		public boolean markSupported() { return true; }
+		public void mark( int readlimit) { data.mark(); }
+		public void reset() { data.reset(); }
+	}
+}
@@ -0,0 +1,152 @@
+package quest;
+
+import java.io.*;
+import java.util.*;
+
+/*
+ * Builds an asset archive, as read by AssetArchive, out of a resource tree
+ * on disk:
+ *
+ *   java quest.AssetPacker <quest resource directory> <archive file>
+ *
+ * The resource directory is the one holding data/, sprites/, sound/ and
+ * so on (the quest package directory, in an unpacked jar). Every file under
+ * it goes into the archive except class files and sources. Files are
+ * written in name order, so the same tree always gives the same archive.
+ */
+
+public class AssetPacker {
+	
+	public static void main( String[] args) throws IOException
+	{
+		if ( args.length < 2 )
+		{
+			System.out.println( "usage: java quest.AssetPacker <quest resource directory> <archive file>");
+			System.exit(1);
+		}
+		
+		File root = new File( args[0]);
+		List<String> names = new ArrayList<String>();
+		collect( root, "", names);
+		Collections.sort( names);
+		
+		long size = pack( root, names, new File( args[1]));
+		System.out.println( "packed " + names.size() + " files into " + args[1] + " (" + (size >> 10) + " KB)");
+	}
+	
+	private static void collect( File dir, String prefix, List<String> names)
+	{
+		File[] files = dir.listFiles();
+		if ( files == null ) return;
+		
+		for( int i=0; i<files.length; i++)
+		{
+			String name = prefix + files[i].getName();
+			if ( files[i].isDirectory() ) collect( files[i], name + "/", names);
+			else if ( !name.endsWith(".class") && !name.endsWith(".java") ) names.add( name);
+		}
+	}
+	
+	/*
+	 * Writes the archive, returning its size. The table of contents goes
+	 * in first, with the data offsets worked out from the file sizes up
+	 * front, so the files can be copied straight in after it.
+	 */
+	
+	private static long pack( File root, List<String> names, File out) throws IOException
+	{
+		int count = names.size();
+		int slots = 1;
+		while( slots < 2*count ) slots <<= 1;
+		
+		//the names, one after the other
+		ByteArrayOutputStream nameBytes = new ByteArrayOutputStream();
+		int[] nameOffsets = new int[count];
+		for( int i=0; i<count; i++)
+		{
+			nameOffsets[i] = nameBytes.size();
+			byte[] b = names.get(i).getBytes( "ISO-8859-1");
+			nameBytes.write( b, 0, b.length);
+		}
+		
+		int namesOffset = AssetArchive.HEADER + slots*AssetArchive.SLOT;
+		long offset = pageAlign( namesOffset + nameBytes.size());
+		
+		//lay the files out, each on its own page
+		long[] dataOffsets = new long[count];
+		long[] dataLengths = new long[count];
+		for( int i=0; i<count; i++)
+		{
+			dataOffsets[i] = offset;
+			dataLengths[i] = new File( root, names.get(i)).length();
+			offset = pageAlign( offset + dataLengths[i]);
+		}
+		if ( offset > Integer.MAX_VALUE ) throw new IOException( "too much to fit in one archive");
+		
+		//hash each name into the table
+		int[] table = new int[slots];
+		Arrays.fill( table, -1);
+		for( int i=0; i<count; i++)
+		{
+			int hash = names.get(i).hashCode();
+			int probe = 0;
+			while( table[(hash + probe) & (slots-1)] >= 0 ) probe++;
+			table[(hash + probe) & (slots-1)] = i;
+		}
+		
+		DataOutputStream stream = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( out)));
+		stream.writeInt( AssetArchive.MAGIC);
+		stream.writeInt( slots);
+		stream.writeInt( namesOffset);
+		stream.writeInt( nameBytes.size());
+		
+		for( int s=0; s<slots; s++)
+		{
+			int i = table[s];
+			if ( i < 0 )
+			{
+				for( int k=0; k<5; k++) stream.writeInt(0);
+				continue;
+			}
+			
+			stream.writeInt( names.get(i).hashCode());
+			stream.writeInt( nameOffsets[i]);
+			stream.writeInt( names.get(i).length());
+			stream.writeInt( (int) dataOffsets[i]);
+			stream.writeInt( (int) dataLengths[i]);
+		}
+		
+		nameBytes.writeTo( stream);
+		
+		long written = namesOffset + nameBytes.size();
+		byte[] buf = new byte[AssetArchive.PAGE];
+		for( int i=0; i<count; i++)
+		{
+			written = pad( stream, written, dataOffsets[i]);
+			
+			InputStream in = new FileInputStream( new File( root, names.get(i)));
+			int n;
+			while( (n = in.read( buf)) > 0 )
+			{
+				stream.write( buf, 0, n);
+				written += n;
+			}
+			in.close();
+		}
+		pad( stream, written, offset);
+		stream.close();
+		
+		return offset;
+	}
+	
+	private static long pageAlign( long offset)
+	{
+		return (offset + AssetArchive.PAGE-1) / AssetArchive.PAGE * AssetArchive.PAGE;
+	}
+	
+	private static long pad( OutputStream stream, long from, long to) throws IOException
+	{
+		for( ; from < to; from++) stream.write(0);
+		return to;
+	}
+}
@@ -0,0 +1,101 @@
+package quest;
+
+import java.awt.*;
+import java.awt.image.*;
+
+/*
+ * Puts module framebuffers on the screen through a Canvas with a
+ * page-flipping BufferStrategy, rather than through JFrame.paint().
+ *
+ * Each frame is first uploaded into a VolatileImage the size of the
+ * framebuffer, and that image is then scaled up onto the strategy's
+ * back page, so the 2x blit can stay in video memory. Both the
+ * VolatileImage and the strategy's pages can lose their contents at any
+ * time (eg when the display mode changes), so present() re-renders until
+ * neither reports a loss.
+ *
+ * Game falls back to its old repaint()/paint() path if this can't be set up.
+ */
+
+public class CanvasPresenter {
+	
+	public static final int PAGES = 3;
+	
+	private Canvas canvas;
+	private BufferStrategy strategy;
+	private VolatileImage staging;
+	private int scale;
+	
+	public CanvasPresenter( Container parent, int width, int height, int scale)
+	{
+		this.scale = scale;
+		
+		canvas = new Canvas();
+		canvas.setPreferredSize( new Dimension( width*scale, height*scale));
+		canvas.setSize( width*scale, height*scale);
+		canvas.setIgnoreRepaint( true);
+		canvas.setFocusable( false);		//keyboard focus stays with the Game frame
+		canvas.setBackground( Color.black);
+		
+		parent.add( canvas);
+		parent.validate();
+		
+		canvas.createBufferStrategy( PAGES);
+		strategy = canvas.getBufferStrategy();
+	}
+	
+	/*
+	 * Draws the given framebuffer to the canvas and flips pages.
+	 * Should be called from the game thread, once per frame.
+	 */
+	
+	public void present( Image frameBuffer)
+	{
+		if ( frameBuffer == null ) return;
+		
+		int w = frameBuffer.getWidth(null);
+		int h = frameBuffer.getHeight(null);
+		
+		do {
+			do {
+				upload( frameBuffer, w, h);
+				
+				Graphics g = strategy.getDrawGraphics();
+				g.drawImage( staging, 0, 0, w*scale, h*scale, 0, 0, w, h, null);
+				g.dispose();
+			
+			} while ( strategy.contentsRestored() || staging.contentsLost() );
+			
+			strategy.show();
+		
+		} while ( strategy.contentsLost() );
+		
+		Toolkit.getDefaultToolkit().sync();
+	}
+	
+	private void upload( Image frameBuffer, int w, int h)
+	{
+		GraphicsConfiguration gc = canvas.getGraphicsConfiguration();
+		
+		//(re)create the staging image if it's missing, the wrong size, or
+		//no longer compatible with the screen the canvas is on
+		if ( staging == null || staging.getWidth() != w || staging.getHeight() != h
+			 || staging.validate( gc) == VolatileImage.IMAGE_INCOMPATIBLE )
+		{
+			if ( staging != null ) staging.flush();
+			staging = gc.createCompatibleVolatileImage( w, h, Transparency.OPAQUE);
+			staging.validate( gc);
+		}
+		
+		Graphics g = staging.getGraphics();
+		g.drawImage( frameBuffer, 0, 0, null);
+		g.dispose();
+	}
+	
+	public void dispose()
+	{
+		if ( staging != null ) staging.flush();
+		strategy.dispose();
+		canvas.getParent().remove( canvas);
+	}
+}
@@ -6,20 +6,63 @@ import java.util.*;
 /*
  * A wrapper for directory traversal. Effectively a "stream factory"
  * for files within its directory.
+ *
+ * Each directory's index.txt is only read and parsed once; every
+ * Directory of the same path after that shares the listing, which
+ * mustn't be modified.
  */
 
 public class Directory {
-
+	
+	private static class Listing {
+		
+		List<String> files;
+		HashSet<String> names;
+		
+		Listing( List<String> files)
+		{
+			this.files = Collections.unmodifiableList( files);
+			names = new HashSet<String>( files);
+		}
+	}
+	
+	private static HashMap<String,Listing> listings = new HashMap<String,Listing>();
+	
 	String path;
 	List<String> files;
+	private HashSet<String> names;
 	
 	public Directory( String path)
 	{
 		this.path = path;
-		files = new ArrayList<String>();
 		
-		InputStream index = getClass().getResourceAsStream( path+"/index.txt");
-		if ( index == null ) return;
+		Listing listing = getListing( path);
+		files = listing.files;
+		names = listing.names;
+	}
+	
+	private static Listing getListing( String path)
+	{
+		synchronized( listings )
+		{
+			Listing listing = listings.get( path);
+			if ( listing != null ) return listing;
+		}
+		
+		Listing listing = new Listing( readIndex( path));
+		synchronized( listings )
+		{
+			listings.put( path, listing);
+		}
+		return listing;
+	}
+	
+	private static List<String> readIndex( String path)
+	{
+		List<String> files = new ArrayList<String>();
+		
+		InputStream index = AssetArchive.getStream( path+"/index.txt");
+		if ( index == null ) return files;
 		
 		BufferedReader reader = new BufferedReader( new InputStreamReader(index));
 		
@@ -30,21 +73,22 @@ public class Directory {
 			{
 				files.add(line);
 			}
+			reader.close();
 		
-		} catch ( IOException ioe ) { return; }
+		} catch ( IOException ioe ) {}
+		return files;
 	}
 	
 	public boolean fileExists( String name)
 	{
-		if ( files.contains(name) ) return true;
-		return false;
+		return names.contains(name);
 	}
 	
 	public InputStream getFileAsStream( String name)
 	{
 		if ( fileExists(name) )
 		{
-			return getClass().getResourceAsStream( path+name);
+			return AssetArchive.getStream( path+name);
 		}
 		
 		return null;
@@ -0,0 +1,198 @@
+package quest;
+
+import java.awt.*;
+import java.io.*;
+import java.util.Arrays;
+
+/*
+ * Frame-phase timing and render counters.
+ *
+ * Code on the game thread brackets each interesting phase with
+ * begin() and end(), and bumps counters with count(). Game calls
+ * endFrame() once per displayed frame, which folds the frame's totals
+ * into a rolling window (used for the p50/p99/max overlay toggled with F3)
+ * and, if logging was switched on with -stats, appends a row to a CSV file.
+ *
+ * A phase may run several times in one frame (eg when Game runs several
+ * ticks back-to-back); its time is summed. Phases can nest, so STEP includes
+ * OBJECTS, MOVEPLAYER, SCRIPT and ROOMLOAD, and RENDER includes FLUSH and
+ * TEXTBOX.
+ *
+ * Everything here is static and unsynchronised; only the game thread
+ * should touch it.
+ */
+
+public class FrameStats {
+	
+	public static final int INPUT = 0, STEP = 1, OBJECTS = 2, MOVEPLAYER = 3, SCRIPT = 4, ROOMLOAD = 5;
+	public static final int RENDER = 6, FLUSH = 7, TEXTBOX = 8, PRESENT = 9, FRAME = 10;
+	public static final int PHASES = 11;
+	
+	public static final int OPS = 0, TILES = 1, SPRITES = 2, PIXELS = 3, SKIPPED = 4, SWITCHES = 5;
+	public static final int COUNTERS = 6;
+	
+	public static final int WINDOW = 300;		//frames kept for the rolling percentiles
+	
+	private static final String[] PHASE_NAMES = { "input", "step", " objects", " moveplayer", " script", " roomload",
+												   "render", " flush", " textbox", "present", "frame" };
+	private static final String[] COUNTER_NAMES = { "ops", "tiles", "sprites", "pixels", "skipped", "switches" };
+	
+	//the frame in progress
+	private static long[] started = new long[PHASES];
+	private static long[] phaseTotal = new long[PHASES];
+	private static long[] counterTotal = new long[COUNTERS];
+	private static long frameStart = System.nanoTime();
+	
+	//the rolling window, in microseconds for phases
+	private static long[][] phaseWindow = new long[PHASES][WINDOW];
+	private static long[][] counterWindow = new long[COUNTERS][WINDOW];
+	private static long[] sortBuffer = new long[WINDOW];
+	private static int windowPos = 0, windowFill = 0;
+	private static long frameNumber = 0;
+	
+	private static volatile boolean overlayVisible = false;	//toggled on the EDT
+	private static Font font = null;
+	private static String label = "";
+	private static PrintWriter csv = null;
+	
+	/*
+	 * Instrumentation.
+	 */
+	
+	public static void begin( int phase)
+	{
+		started[phase] = System.nanoTime();
+	}
+	
+	public static void end( int phase)
+	{
+		phaseTotal[phase] += System.nanoTime() - started[phase];
+	}
+	
+	public static void count( int counter, long amount)
+	{
+		counterTotal[counter] += amount;
+	}
+	
+	public static long getCount( int counter)
+	{
+		return counterTotal[counter];
+	}
+	
+	/*
+	 * Tags subsequent frames, eg with the current room, in the CSV log.
+	 */
+	
+	public static void setLabel( String newLabel)
+	{
+		label = (newLabel == null) ? "" : newLabel;
+	}
+	
+	public static String getLabel()
+	{
+		return label;
+	}
+	
+	/*
+	 * Closes off the current frame.
+	 */
+	
+	public static void endFrame()
+	{
+		long now = System.nanoTime();
+		phaseTotal[FRAME] = now - frameStart;
+		frameStart = now;
+		
+		for( int p=0; p<PHASES; p++) phaseWindow[p][windowPos] = phaseTotal[p]/1000;
+		for( int c=0; c<COUNTERS; c++) counterWindow[c][windowPos] = counterTotal[c];
+		windowPos = (windowPos+1)%WINDOW;
+		if ( windowFill < WINDOW ) windowFill++;
+		
+		if ( csv != null )
+		{
+			csv.print( frameNumber);
+			csv.print( ',');
+			csv.print( label);
+			for( int p=0; p<PHASES; p++) { csv.print( ','); csv.print( phaseTotal[p]/1000); }
+			for( int c=0; c<COUNTERS; c++) { csv.print( ','); csv.print( counterTotal[c]); }
+			csv.println();
+		}
+		
+		frameNumber++;
+		Arrays.fill( phaseTotal, 0);
+		Arrays.fill( counterTotal, 0);
+	}
+	
+	/*
+	 * CSV logging. Opened on startup by Game if requested, and written
+	 * out when the game exits.
+	 */
+	
+	public static void startLog( String filename)
+	{
+		try {
+			csv = new PrintWriter( new BufferedWriter( new FileWriter( filename), 1<<16));
+			
+			csv.print( "frame,label");
+			for( int p=0; p<PHASES; p++) csv.print( "," + PHASE_NAMES[p].trim() + "_us");
+			for( int c=0; c<COUNTERS; c++) csv.print( "," + COUNTER_NAMES[c]);
+			csv.println();
+		
+		} catch ( IOException exIO ) { exIO.printStackTrace(); csv = null; }
+	}
+	
+	public static void closeLog()
+	{
+		if ( csv == null ) return;
+		csv.close();
+		csv = null;
+	}
+	
+	/*
+	 * The overlay.
+	 */
+	
+	public static void toggleOverlay()
+	{
+		overlayVisible = !overlayVisible;
+	}
+	
+	public static void drawOverlay( Graphics g)
+	{
+		if ( !overlayVisible || windowFill == 0 ) return;
+		
+		if ( font == null ) font = new Font( Font.MONOSPACED, Font.PLAIN, 8);
+		int lines = 1 + PHASES + COUNTERS;
+		
+		g.setColor( new Color( 0, 0, 0, 170));
+		g.fillRect( 2, 2, 176, lines*8+6);
+		g.setFont( font);
+		g.setColor( Color.white);
+		
+		int y = 10;
+		g.drawString( String.format( "%-11s %6s %6s %6s", "(us)", "p50", "p99", "max"), 5, y);
+		
+		for( int p=0; p<PHASES; p++)
+		{
+			y += 8;
+			drawRow( g, PHASE_NAMES[p], phaseWindow[p], y);
+		}
+		for( int c=0; c<COUNTERS; c++)
+		{
+			y += 8;
+			drawRow( g, COUNTER_NAMES[c], counterWindow[c], y);
+		}
+	}
+	
+	private static void drawRow( Graphics g, String name, long[] window, int y)
+	{
+		System.arraycopy( window, 0, sortBuffer, 0, windowFill);
+		Arrays.sort( sortBuffer, 0, windowFill);
+		
+		long p50 = sortBuffer[(windowFill-1)/2];
+		long p99 = sortBuffer[((windowFill-1)*99)/100];
+		long max = sortBuffer[windowFill-1];
+		
+		g.drawString( String.format( "%-11s %6d %6d %6d", name, p50, p99, max), 5, y);
+	}
+}
@@ -6,10 +6,34 @@ import java.awt.event.*;
 import quest.battle.*;
 import quest.field.*;
 import java.net.*;
+import java.util.*;
 import java.io.File;
 import java.io.FileReader;
 
-public class Game extends JFrame implements WindowListener, KeyListener, Runnable {
+/*
+ * Game owns the main loop, the current Module and the shared game state.
+ * Normally it also owns a window, which it draws into and takes key events
+ * from. Started with -headless, it has no window at all: ticks run
+ * back-to-back in the field engine, input comes from an InputSource (or
+ * nowhere), and rendering only happens if asked for, into the module's
+ * off-screen framebuffer.
+ *
+ * With -record, the input of the first field session is logged by an
+ * InputRecorder; -replay feeds such a log back in through an InputReplay,
+ * checking every tick against the recording.
+ *
+ * Resources come from the asset archive given with -archive, or from
+ * AssetArchive.DEFAULT_FILE if there's one in the working directory, and
+ * otherwise from the classpath.
+ *
+ * Game used to be the window itself, and the prebuilt modules still hand
+ * it to a MediaTracker, which takes any Component. So Game is still a
+ * Component, but not a JFrame, since a JFrame can't even be created
+ * without a display; the window is a separate GameWindow, only created
+ * when there's going to be one.
+ */
+
+public class Game extends Component implements WindowListener, KeyListener, Runnable {
 	
 	private static final long serialVersionUID = -4708027921426744660L;
 	public static final int SCREENW = 320, SCREENH = 240;
@@ -19,32 +43,60 @@ public class Game extends JFrame implements WindowListener, KeyListener, Runnabl
 	public static final String SOUNDPATH = "/quest/sound/";
 	public static final String MUSICPATH = "/quest/sound/bg/";
 	public static final String DATAPATH = "/quest/data/";
+	public static final int DEFAULT_TICKRATE = 33;		//simulation ticks per second
+	public static final int MAX_CATCHUP = 5;			//most ticks run back-to-back before a frame is drawn
 	
 	private static Game singletonGame = null;
 	
+	private JFrame window = null;				//null when running headless
 	private Module currentModule = null;
 	private Music currentMusic = null;
 	private Whiteboard whiteboard;
 	private State state;
 	private InputMap primaryInput, secondaryInput;
+	private CanvasPresenter presenter = null;	//null when using the paint() fallback
+	private long tickNanos = 1000000000L/DEFAULT_TICKRATE;
+	private InputSource inputSource = null;		//null when input comes from the keyboard
+	private boolean sessionOver = false;		//ends a headless run
+	private String recordPath = null;
+	private InputRecorder recorder = null;
+	private InputReplay replay = null;
 	
 	private String runningDir;
 
 	public int volume = 100;
 	
-	private Game() {
-		super("Nepetaquest 2011 Internal Build - Sunday, May 29th");
-		setSize( SCREENW*2, SCREENH*2);
-		setResizable(false);
+	/*
+	 * The game window. All it does is hand painting back to Game.
+	 */
+	
+	private class GameWindow extends JFrame {
 		
-		//center on the desktop
-		Dimension ss = Toolkit.getDefaultToolkit().getScreenSize();
-		setLocation( (ss.width-getWidth())/2, (ss.height-getHeight())/2);
-		setVisible(true);
+		private static final long serialVersionUID = 151371693516297638L;
 		
-		//account for the size of the window frame
-		Insets i = getInsets();
-		setSize( getWidth()+i.left+i.right, getHeight()+i.top+i.bottom);
+		GameWindow( String title) {
+			super(title);
+		}
+		public void paint(Graphics g) {
+			Game.this.paint(g);
+		}
+	}
+	
+	private Game( boolean headless) {
+		if ( !headless ) {
+			window = new GameWindow("Nepetaquest 2011 Internal Build - Sunday, May 29th");
+			window.setSize( SCREENW*2, SCREENH*2);
+			window.setResizable(false);
+			
+			//center on the desktop
+			Dimension ss = Toolkit.getDefaultToolkit().getScreenSize();
+			window.setLocation( (ss.width-window.getWidth())/2, (ss.height-window.getHeight())/2);
+			window.setVisible(true);
+			
+			//account for the size of the window frame
+			Insets i = window.getInsets();
+			window.setSize( window.getWidth()+i.left+i.right, window.getHeight()+i.top+i.bottom);
+		}
 		
 		state = new State();
 		whiteboard = new Whiteboard();
@@ -61,31 +113,125 @@ public class Game extends JFrame implements WindowListener, KeyListener, Runnabl
 	}
 	public static void main(String[] args) {
 		
-		Game game = new Game();
-		game.state = new State();
-		game.addWindowListener(game);
-		game.addKeyListener(game);
-		game.switchModuleTo(MODULE_PRELOADER);
-		if(args.length > 0 ) {
-			if(args[0].equals("-silent")) {
-				game.volume = 0;
+		boolean useCanvas = true, silent = false;
+		boolean headless = false, render = false;
+		String startRoom = FieldModule.START_ROOM;
+		String recordPath = null;
+		InputReplay replay = null;
+		long maxTicks = -1;
+		int tickRate = DEFAULT_TICKRATE;
+		InputSource source = null;
+		for(int a=0; a<args.length; a++) {
+			if(args[a].equals("-silent")) {
+				silent = true;
+			}
+			if(args[a].equals("-swingpaint")) {
+				useCanvas = false;
+			}
+			if(args[a].equals("-stats")) {
+				FrameStats.startLog("framestats.csv");
+			}
+			if(args[a].equals("-tickrate") && a+1 < args.length) {
+				tickRate = Integer.parseInt(args[++a]);
+			}
+			if(args[a].equals("-headless")) {
+				headless = true;
+			}
+			if(args[a].equals("-render")) {
+				render = true;
+			}
+			if(args[a].equals("-room") && a+1 < args.length) {
+				startRoom = args[++a];
+			}
+			if(args[a].equals("-ticks") && a+1 < args.length) {
+				maxTicks = Long.parseLong(args[++a]);
+			}
+			if(args[a].equals("-wander") && a+1 < args.length) {
+				source = new WanderInput(Long.parseLong(args[++a]));
+			}
+			if(args[a].equals("-parallel") && a+1 < args.length) {
+				ParallelStepper.configure(Integer.parseInt(args[++a]));
+			}
+			if(args[a].equals("-spritecache") && a+1 < args.length) {
+				SpriteCache.setBudget(Long.parseLong(args[++a]) << 20);
+			}
+			if(args[a].equals("-prefetch") && a+1 < args.length) {
+				RoomPrefetcher.configure(Integer.parseInt(args[++a]));
+			}
+			if(args[a].equals("-archive") && a+1 < args.length) {
+				AssetArchive.mount(args[++a]);
+			}
+			if(args[a].equals("-lod") && a+1 < args.length) {
+				String[] lod = args[++a].split(",");
+				StepLOD.configure(Integer.parseInt(lod[0]), Integer.parseInt(lod[1]), Integer.parseInt(lod[2]));
+			}
+			if(args[a].equals("-record") && a+1 < args.length) {
+				recordPath = args[++a];
+			}
+			if(args[a].equals("-replay") && a+1 < args.length) {
+				try {
+					replay = new InputReplay(args[++a]);
+				} catch (java.io.IOException e) {
+					e.printStackTrace();
+					System.exit(1);
+				}
 			}
 		}
 		
+		//a replay starts in the field, in the same room and with the same seed as its recording
+		if(replay != null) {
+			source = replay;
+			startRoom = replay.getStartRoom();
+			Room.setSessionSeed(replay.getSeed());
+		}
+		
+		Game game = new Game(headless);
+		game.state = new State();
+		game.setTickRate(tickRate);
+		game.setInputSource(source);
+		game.recordPath = recordPath;
+		game.replay = replay;
+		if(silent || headless) game.volume = 0;
+		
+		if(headless) {
+			game.startField(startRoom);
+			game.runHeadless(maxTicks, render);
+			System.exit(0);
+		}
+		
+		game.window.addWindowListener(game);
+		game.window.addKeyListener(game);
+		if(replay != null) game.startField(startRoom);
+		else game.switchModuleTo(MODULE_PRELOADER);
+		if(useCanvas) game.initPresenter();
+		
 		Thread stepThread = new Thread(game);
 		stepThread.start();
 		try {
 			stepThread.join();
 		} catch (InterruptedException ie) {}
 	}
+	/*
+	 * Sets up the BufferStrategy presentation path. If that fails for
+	 * any reason, frames keep going through repaint() and paint().
+	 */
+	
+	private synchronized void initPresenter() {
+		try {
+			presenter = new CanvasPresenter(window.getContentPane(), SCREENW, SCREENH, 2);
+		} catch (Exception e) {
+			e.printStackTrace();
+			presenter = null;
+		}
+	}
 	public synchronized void paint(Graphics g) {
 		
 		Image frameBuffer = null;
 		if ( currentModule != null ) 
 			frameBuffer = currentModule.getFrameBuffer();
-		if ( frameBuffer != null )	
+		if ( frameBuffer != null && presenter == null )	
 		{
-			Insets i = getInsets();
+			Insets i = window.getInsets();
 			int w = frameBuffer.getWidth(null);
 			int h = frameBuffer.getHeight(null);
 			
@@ -94,41 +240,201 @@ public class Game extends JFrame implements WindowListener, KeyListener, Runnabl
 		
 		notifyAll();
 	}
-	public synchronized void run() {
+	/*
+	 * The main loop. Simulation runs in fixed ticks of tickNanos, paced
+	 * against System.nanoTime(). Each pass runs every tick that has become
+	 * due (at most MAX_CATCHUP of them, after which the backlog is dropped
+	 * and the game slows down instead of spiralling), then draws and
+	 * presents a single frame. A slow frame therefore costs frames, not
+	 * simulation speed.
+	 */
+	
+	public void run() {
 		
-		long timeStart = System.currentTimeMillis();
+		long previous = System.nanoTime();
+		long accumulator = tickNanos;
 		
 		while(true) {
 			
-			translateInput();
-			currentModule.step();
-			repaint();
+			long now = System.nanoTime();
+			accumulator += now - previous;
+			previous = now;
 			
-			if(currentModule.saveFlag) {
-				save();
-				currentModule.saveFlag = false;
-			}
-			if(currentModule.exitFlag) {
-				switchModuleTo(currentModule.successor);
-				translateInput();
-				currentModule.step();
-			}
-			
-			//timing
 			try {
-				wait();
-				long timePassed = System.currentTimeMillis() - timeStart;
-				if ( timePassed < 30 ) Thread.sleep( 30 - timePassed);
-				timeStart = System.currentTimeMillis();
+				synchronized(this) {
+					int ticks = 0;
+					while ( accumulator >= tickNanos && ticks < MAX_CATCHUP ) {
+						tick();
+						accumulator -= tickNanos;
+						ticks++;
+					}
+					if ( accumulator >= tickNanos ) accumulator %= tickNanos;
+					
+					//present the frame. the canvas path draws it right here;
+					//the fallback path hands it to the EDT and waits for paint().
+					if ( ticks > 0 ) {
+						FrameStats.begin(FrameStats.RENDER);
+						currentModule.render();
+						FrameStats.end(FrameStats.RENDER);
+						
+						Image frameBuffer = currentModule.getFrameBuffer();
+						if ( frameBuffer != null ) {
+							Graphics overlay = frameBuffer.getGraphics();
+							if ( currentModule instanceof PreloaderModule ) Preloader.drawOverlay(overlay);
+							FrameStats.drawOverlay(overlay);
+							overlay.dispose();
+						}
+						
+						FrameStats.begin(FrameStats.PRESENT);
+						if ( presenter != null ) presenter.present(frameBuffer);
+						else {
+							window.repaint();
+							wait();
+						}
+						FrameStats.end(FrameStats.PRESENT);
+						FrameStats.endFrame();
+					}
+				}
+				
+				//sleep until the next tick is due
+				long remaining = tickNanos - accumulator - (System.nanoTime() - previous);
+				if ( remaining > 0 ) Thread.sleep( remaining/1000000L, (int)(remaining%1000000L));
 			} catch (InterruptedException ie) {}
 		}
 	}
+	/*
+	 * The headless loop. Runs ticks back-to-back, as fast as they'll go,
+	 * rendering each one only if asked to. Stops after maxTicks ticks (never,
+	 * if it's negative), when the InputSource runs dry, or when the module
+	 * tries to exit, then prints ticks/second for each room visited, how
+	 * many object steps StepLOD skipped there, and how the SpriteCache did.
+	 */
+	
+	private void runHeadless( long maxTicks, boolean render) {
+		
+		Map<String,long[]> rooms = new LinkedHashMap<String,long[]>();
+		long count = 0;
+		
+		while ( !sessionOver && (maxTicks < 0 || count < maxTicks) ) {
+			String room = FrameStats.getLabel();
+			long start = System.nanoTime();
+			
+			if ( !tick() ) break;
+			if ( render ) {
+				FrameStats.begin(FrameStats.RENDER);
+				currentModule.render();
+				FrameStats.end(FrameStats.RENDER);
+			}
+			long elapsed = System.nanoTime() - start;
+			
+			long[] totals = rooms.get(room);
+			if ( totals == null ) rooms.put(room, totals = new long[3]);
+			totals[0]++;
+			totals[1] += elapsed;
+			totals[2] += FrameStats.getCount(FrameStats.SKIPPED);
+			FrameStats.endFrame();
+			count++;
+		}
+		stopRecording();
+		FrameStats.closeLog();
+		
+		System.out.println(String.format("%-32s %10s %10s %12s %10s", "room", "ticks", "ms", "ticks/s", "skipped"));
+		for ( Map.Entry<String,long[]> e : rooms.entrySet() ) {
+			long[] totals = e.getValue();
+			System.out.println(String.format("%-32s %10d %10d %12.1f %10d", e.getKey(), totals[0],
+				totals[1]/1000000L, totals[0]*1e9/Math.max(1, totals[1]), totals[2]));
+		}
+		System.out.println(String.format("sprite cache: %d hits, %d misses, %d evictions, %d KB held",
+			SpriteCache.getHits(), SpriteCache.getMisses(), SpriteCache.getEvictions(), SpriteCache.getBytes() >> 10));
+		if ( replay != null ) {
+			if ( replay.getDivergedTick() < 0 ) System.out.println("Replay matched its recording for " + replay.getTicks() + " ticks");
+			else System.out.println("Replay diverged from its recording at tick " + replay.getDivergedTick());
+		}
+	}
+	/*
+	 * One simulation tick. Returns false if the headless session ended
+	 * before the module could be stepped.
+	 */
+	
+	private boolean tick() {
+		
+		FrameStats.begin(FrameStats.INPUT);
+		readInput();
+		FrameStats.end(FrameStats.INPUT);
+		if ( sessionOver ) return false;
+		
+		if ( recorder != null ) recorder.recordInput(secondaryInput);
+		
+		FrameStats.begin(FrameStats.STEP);
+		currentModule.step();
+		FrameStats.end(FrameStats.STEP);
+		
+		if ( recorder != null || (replay != null && inputSource == replay) ) {
+			int checksum = currentModule.getChecksum();
+			if ( recorder != null ) recorder.recordChecksum(checksum);
+			if ( replay != null && inputSource == replay ) replay.verify(checksum);
+		}
+		
+		if(currentModule.saveFlag) {
+			save();
+			currentModule.saveFlag = false;
+		}
+		if(currentModule.exitFlag) {
+			//there's nothing but the field engine to switch to when headless
+			if ( window == null ) {
+				sessionOver = true;
+				return true;
+			}
+			switchModuleTo(currentModule.successor);
+			readInput();
+			currentModule.step();
+		}
+		return true;
+	}
+	public void setTickRate( int ticksPerSecond) {
+		if ( ticksPerSecond > 0 ) tickNanos = 1000000000L/ticksPerSecond;
+	}
+	public synchronized void setInputSource( InputSource source) {
+		inputSource = source;
+	}
+	
+	/*
+	 * Starts the field engine directly in the given room, skipping the 
+	 * preloader and menu. Used by headless runs and replays.
+	 */
+	
+	private void startField( String room) {
+		currentModule = new FieldModule(DATAPATH + room);
+		startRecording(room);
+	}
+	
+	/*
+	 * Recording covers a single field session: it starts when the field
+	 * engine does, and stops when Game switches away from it.
+	 */
+	
+	private void startRecording( String room) {
+		if ( recordPath == null || recorder != null ) return;
+		
+		try {
+			recorder = new InputRecorder(recordPath, Room.getSessionSeed(), room);
+		} catch (java.io.IOException e) {
+			e.printStackTrace();
+		}
+		recordPath = null;
+	}
+	private void stopRecording() {
+		if ( recorder == null ) return;
+		recorder.close();
+		recorder = null;
+	}
 	
 	/*
 	 * Major interface functions for modules.
 	 */
 	
 	public void switchModuleTo( int moduleType) {
+		stopRecording();
 		if ( currentModule != null ) currentModule.exit();
 		currentModule = null;
 		
@@ -138,6 +444,7 @@ public class Game extends JFrame implements WindowListener, KeyListener, Runnabl
 		switch(moduleType) {
 		case MODULE_QUIT:
 			//Quit
+			FrameStats.closeLog();
 			System.exit(0);
 			break;
 		case MODULE_BATTLE : 
@@ -155,6 +462,7 @@ public class Game extends JFrame implements WindowListener, KeyListener, Runnabl
 			break;
 		case MODULE_FIELD:
 			currentModule = new FieldModule();
+			startRecording(FieldModule.START_ROOM);
 			break;
 		case MODULE_PRELOADER:
 			currentModule = new PreloaderModule();
@@ -224,12 +532,28 @@ public class Game extends JFrame implements WindowListener, KeyListener, Runnabl
 		state.saveState("nepetaquest.sav");
 	}
 	public int getScreenHeight() {
-		Insets i = getInsets();
-		return getHeight() - i.top - i.bottom;
+		if ( window == null ) return SCREENH*2;
+		Insets i = window.getInsets();
+		return window.getHeight() - i.top - i.bottom;
 	}
 	public int getScreenWidth() {
-		Insets i = getInsets();
-		return getWidth() - i.left - i.right;
+		if ( window == null ) return SCREENW*2;
+		Insets i = window.getInsets();
+		return window.getWidth() - i.left - i.right;
+	}
+	
+	/*
+	 * The size of the window, frame included. (Game used to be the window
+	 * itself, and some modules still ask it for this.)
+	 */
+	
+	public int getHeight() {
+		if ( window == null ) return SCREENH*2;
+		return window.getHeight();
+	}
+	public int getWidth() {
+		if ( window == null ) return SCREENW*2;
+		return window.getWidth();
 	}
 	
 	/*
@@ -237,6 +561,10 @@ public class Game extends JFrame implements WindowListener, KeyListener, Runnabl
 	 */
 	
 	public void keyPressed(KeyEvent ke) {
+		if ( ke.getKeyCode() == KeyEvent.VK_F3 ) {
+			FrameStats.toggleOverlay();
+			return;
+		}
 		primaryInput.anyKey = true;
 		keyEvent( ke, InputMap.PRESSED);
 	}
@@ -264,6 +592,20 @@ public class Game extends JFrame implements WindowListener, KeyListener, Runnabl
 			primaryInput.keyArray[code] = InputMap.DOWN;
 		}
 	}
+	/*
+	 * Brings secondaryInput up to date for the coming tick, either from
+	 * the InputSource or from key events. If the InputSource runs dry, a
+	 * headless session ends; otherwise the keyboard takes over.
+	 */
+	
+	private void readInput() {
+		if ( inputSource != null && inputSource.nextTick(secondaryInput) == false ) {
+			inputSource = null;
+			secondaryInput = new InputMap();
+			if ( window == null ) sessionOver = true;
+		}
+		if ( inputSource == null ) translateInput();
+	}
 	private void translateInput() {
 		
 		for( int i=0; i<256; i++)
@@ -313,6 +655,10 @@ public class Game extends JFrame implements WindowListener, KeyListener, Runnabl
 	public void windowClosed(WindowEvent arg0) {
 	}
 	public void windowClosing(WindowEvent arg0) {
+		synchronized(this) {
+			stopRecording();
+			FrameStats.closeLog();
+		}
 		System.exit(0);
 	}
 	public void windowDeactivated(WindowEvent we) {		
@@ -3,8 +3,9 @@ package quest;
 /*
  * Stores the current state of the keyboard.
  * 
- * A single InputMap is always kept up-to-date by Game, and
- * should be accessed using Game.getGame().getInputMap().
+ * A single InputMap is always kept up-to-date by Game (from key
+ * events, or from an InputSource), and should be accessed using 
+ * Game.getGame().getInputMap().
  */
 
 public class InputMap {
@@ -51,4 +52,15 @@ public class InputMap {
 		if ( keyArray[code] == RELEASED ) return true;
 		else return false;
 	}
+	
+	/*
+	 * For InputSources. Sets whether a key is held down this tick, 
+	 * producing the same PRESSED and RELEASED edges which Game derives
+	 * from real key events.
+	 */
+	
+	public void hold( int code, boolean down) {
+		if ( down ) keyArray[code] = isKeyDown(code) ? DOWN : PRESSED;
+		else keyArray[code] = isKeyUp(code) ? UP : RELEASED;
+	}
 }
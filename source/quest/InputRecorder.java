@@ -0,0 +1,87 @@
+package quest;
+
+import java.io.*;
+import java.util.Arrays;
+
+/*
+ * Writes the input which modules saw on each tick to a compact binary
+ * log, along with a checksum of the module's state after the tick, so
+ * that InputReplay can play the session back exactly.
+ *
+ * A log starts with a header:
+ *   int     MAGIC
+ *   byte    VERSION
+ *   long    the Room session seed
+ *   UTF     the room the field engine started in
+ * followed by one record per tick:
+ *   short   n, the number of keys whose state changed since the last tick
+ *   n x     byte keycode, byte new state
+ *   int     checksum
+ * Every key starts out UP.
+ */
+
+public class InputRecorder {
+	
+	public static final int MAGIC = 0x4e514952;		//"NQIR"
+	public static final int VERSION = 1;
+	
+	private DataOutputStream stream;
+	private int[] previous = new int[256];
+	private byte[] changes = new byte[512];
+	
+	public InputRecorder( String filename, long seed, String startRoom) throws IOException
+	{
+		stream = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( filename), 1<<16));
+		stream.writeInt( MAGIC);
+		stream.writeByte( VERSION);
+		stream.writeLong( seed);
+		stream.writeUTF( startRoom);
+		
+		Arrays.fill( previous, InputMap.UP);
+	}
+	
+	/*
+	 * Called once per tick, with the InputMap modules are about to see,
+	 * and then with the module's checksum once the tick has run.
+	 */
+	
+	public void recordInput( InputMap input)
+	{
+		if ( stream == null ) return;
+		
+		int n = 0;
+		for( int i=0; i<256; i++)
+		{
+			if ( input.keyArray[i] == previous[i] ) continue;
+			
+			previous[i] = input.keyArray[i];
+			changes[n*2] = (byte) i;
+			changes[n*2+1] = (byte) previous[i];
+			n++;
+		}
+		
+		try {
+			stream.writeShort( n);
+			stream.write( changes, 0, n*2);
+		} catch ( IOException exIO ) { exIO.printStackTrace(); close(); }
+	}
+	
+	public void recordChecksum( int checksum)
+	{
+		if ( stream == null ) return;
+		
+		try {
+			stream.writeInt( checksum);
+		} catch ( IOException exIO ) { exIO.printStackTrace(); close(); }
+	}
+	
+	public void close()
+	{
+		if ( stream == null ) return;
+		
+		try {
+			stream.close();
+		} catch ( IOException exIO ) { exIO.printStackTrace(); }
+		stream = null;
+	}
+}
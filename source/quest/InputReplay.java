@@ -0,0 +1,95 @@
+package quest;
+
+import java.io.*;
+import java.util.Arrays;
+
+/*
+ * An InputSource which plays back a log written by InputRecorder.
+ * 
+ * Before the replay starts, Room's session seed must be set to getSeed()
+ * and the field engine started in getStartRoom(). After each tick, Game
+ * passes the module's checksum to verify(), which reports the first tick
+ * on which the replay stopped matching the recording.
+ */
+
+public class InputReplay implements InputSource {
+	
+	private DataInputStream stream;
+	private long seed;
+	private String startRoom;
+	
+	private int[] current = new int[256];
+	private int expected;
+	private long tick = 0, divergedAt = -1;
+	
+	public InputReplay( String filename) throws IOException
+	{
+		stream = new DataInputStream( new BufferedInputStream( new FileInputStream( filename), 1<<16));
+		
+		if ( stream.readInt() != InputRecorder.MAGIC ) throw new IOException( filename + " is not an input log");
+		int version = stream.readByte();
+		if ( version != InputRecorder.VERSION ) throw new IOException( filename + " has unknown version " + version);
+		
+		seed = stream.readLong();
+		startRoom = stream.readUTF();
+		
+		Arrays.fill( current, InputMap.UP);
+	}
+	
+	public boolean nextTick( InputMap input)
+	{
+		if ( stream == null ) return false;
+		
+		try {
+			int n = stream.readShort();
+			for( int i=0; i<n; i++)
+			{
+				int code = stream.readUnsignedByte();
+				current[code] = stream.readByte();
+			}
+			expected = stream.readInt();
+		
+		} catch ( IOException exIO ) {
+			
+			//running off the end of the log is how a replay normally ends
+			if ( !(exIO instanceof EOFException) ) exIO.printStackTrace();
+			close();
+			return false;
+		}
+		
+		System.arraycopy( current, 0, input.keyArray, 0, 256);
+		input.anyKey = false;
+		tick++;
+		return true;
+	}
+	
+	/*
+	 * Compares the module's state after the tick just replayed with the
+	 * state recorded for it. Returns false if they differ.
+	 */
+	
+	public boolean verify( int checksum)
+	{
+		if ( checksum == expected ) return true;
+		
+		if ( divergedAt < 0 ) 
+		{
+			divergedAt = tick-1;
+			System.err.println( "Replay diverged from its recording at tick " + divergedAt);
+		}
+		return false;
+	}
+	
+	public long getSeed() { return seed; }
+	public String getStartRoom() { return startRoom; }
+	public long getTicks() { return tick; }
+	public long getDivergedTick() { return divergedAt; }
+	
+	private void close()
+	{
+		try {
+			stream.close();
+		} catch ( IOException exIO ) { exIO.printStackTrace(); }
+		stream = null;
+	}
+}
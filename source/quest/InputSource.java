@@ -0,0 +1,20 @@
+package quest;
+
+/*
+ * A programmatic stand-in for the keyboard.
+ * While Game has an InputSource, it asks the source for each tick's
+ * input rather than translating key events, so modules can't tell the
+ * difference. Used for headless runs and automated sessions.
+ */
+
+public interface InputSource {
+	
+	/*
+	 * Fills in the InputMap which modules will see for the coming tick.
+	 * The map still holds the previous tick's states; InputMap.hold() 
+	 * turns those into the right PRESSED/DOWN/RELEASED/UP states.
+	 * Returns false, without touching the map, once the source has run dry.
+	 */
+	
+	public boolean nextTick( InputMap input);
+}
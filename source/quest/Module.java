@@ -13,6 +13,26 @@ public abstract class Module {
 	public boolean saveFlag = false;
 	public abstract void exit();
 	public abstract void step();
+	
+	/*
+	 * step() is one fixed-length simulation tick. render() draws the
+	 * current state into the frameBuffer, and is called by Game once per
+	 * displayed frame, which may follow several ticks. Modules which still
+	 * draw their frame as part of step() needn't override it.
+	 */
+	
+	public void render() {
+	}
+	
+	/*
+	 * A hash of whatever state input can affect, taken after each tick.
+	 * A replayed session which produces a different checksum from its
+	 * recording has diverged from it.
+	 */
+	
+	public int getChecksum() {
+		return 0;
+	}
 	public Image getFrameBuffer() {
 		return frameBuffer;
 	}
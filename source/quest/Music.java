@@ -54,7 +54,7 @@ public class Music implements Runnable {
 		{
 			//open a stream to the file
 			try {
-				stream = getClass().getResource(filepath).openStream();//new FileInputStream( new File( filepath));
+				stream = AssetArchive.getStream(filepath);//new FileInputStream( new File( filepath));
 			} catch (Exception exFNF ) { exFNF.printStackTrace(); return; }
 			
 			//construct JOgg and JOrbis objects
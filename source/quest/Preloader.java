@@ -0,0 +1,237 @@
+package quest;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import quest.field.AnimationIndex;
+
+/*
+ * Loads the game's resources at startup, while PreloaderModule shows the
+ * title screen.
+ *
+ * Every asset is listed before anything is loaded, by walking the
+ * index.txt files from the quest package down, so the total is known from
+ * the start and getProgress() is exact. The assets are then loaded across a
+ * ForkJoinPool with one worker per core:
+ *
+ *  - PNGs are decoded into the SpriteCache, where any Sprite or SpriteBank
+ *    asking for them later will find them;
+ *  - a sprite with a slicing file beside it (as read by Sprite.loadSprite())
+ *    is one task: the image is decoded, then the slicing is parsed and
+ *    kept in the SpriteCache, so loadSprite() finds both ready and never
+ *    reads the file again;
+ *  - everything else (entity, item and dialogue text, music, sound effects)
+ *    is read through once. Nothing keeps those, since the code that uses
+ *    them opens them itself, but they've at least been inflated from the
+ *    jar once.
+ *
+ * The AnimationIndex is built first of all, since it's only a matter of
+ * reading one index.txt.
+ *
+ * The Load tasks count off each file as they finish it, so getProgress()
+ * moves while the pool works, and doneLoading is set once everything has
+ * been loaded. PreloaderModule only looks at doneLoading, so Game draws
+ * the progress over its frame with drawOverlay().
+ */
+
+public class Preloader implements Runnable {
+	
+	private static final String ROOT = "/quest/";
+	
+	private static volatile Preloader current = null;	//the last one started
+	
+	public volatile boolean doneLoading = false;
+	
+	private int threads;
+	private List<String[]> jobs = new ArrayList<String[]>();
+	private volatile int total = -1;
+	private AtomicInteger loaded = new AtomicInteger();
+	
+	public Preloader()
+	{
+		this( Runtime.getRuntime().availableProcessors());
+	}
+	
+	Preloader( int threads)
+	{
+		this.threads = Math.max( 1, threads);
+		current = this;
+		
+		Thread thread = new Thread( this, "preloader");
+		thread.setDaemon( true);
+		thread.start();
+	}
+	
+	public void run()
+	{
+		try {
+			
+			//index the NPC animations before any room wants them
+			AnimationIndex.load();
+			
+			//list everything first, then load it all
+			List<String> files = new ArrayList<String>();
+			traverseDir( "", files);
+			planJobs( files);
+			
+			ForkJoinPool pool = new ForkJoinPool( threads);
+			pool.invoke( new Load( 0, jobs.size()));
+			pool.shutdown();
+		
+		} catch ( Exception ex ) { ex.printStackTrace(); }
+		
+		doneLoading = true;
+	}
+	
+	/*
+	 * Progress, in files. getTotal() is -1 until every index.txt
+	 * has been read.
+	 */
+	
+	public int getLoaded() { return loaded.get(); }
+	public int getTotal() { return total; }
+	
+	public float getProgress()
+	{
+		if ( doneLoading ) return 1f;
+		if ( total <= 0 ) return 0f;
+		return loaded.get() / (float)total;
+	}
+	
+	/*
+	 * Draws a bar showing how far the last preloader started has got,
+	 * under PreloaderModule's label, until it's done.
+	 */
+	
+	public static void drawOverlay( Graphics g)
+	{
+		Preloader p = current;
+		if ( p == null || p.doneLoading ) return;
+		
+		int fill = Math.round( 78 * p.getProgress());
+		g.setColor( Color.black);
+		g.fillRect( 10, 126, 80, 6);
+		g.setColor( Color.white);
+		g.fillRect( 11, 127, fill, 4);
+	}
+	
+	/*
+	 * Adds every loadable file under the given directory (relative to
+	 * the quest package) to the list.
+	 */
+	
+	private void traverseDir( String dir, List<String> files)
+	{
+		InputStream index = AssetArchive.getStream( ROOT + dir + "index.txt");
+		if ( index == null ) return;
+		
+		Scanner scanner = new Scanner( index);
+		while( scanner.hasNextLine() )
+		{
+			String line = scanner.nextLine().trim();
+			if ( line.isEmpty() || line.startsWith(".") ) continue;
+			
+			if ( line.endsWith("/") ) traverseDir( dir + line, files);
+			else if ( isAsset( line) ) files.add( dir + line);
+		}
+		scanner.close();
+	}
+	
+	private static boolean isAsset( String file)
+	{
+		if ( file.equals("index.txt") ) return false;
+		
+		return file.endsWith(".png") || file.endsWith(".txt")
+			|| file.endsWith(".ogg") || file.endsWith(".wav");
+	}
+	
+	/*
+	 * Pairs each slicing file with the PNG it applies to. Every
+	 * other file is a job on its own.
+	 */
+	
+	private void planJobs( List<String> files)
+	{
+		HashSet<String> pngs = new HashSet<String>();
+		for( String file : files) if ( file.endsWith(".png") ) pngs.add( file);
+		
+		HashSet<String> paired = new HashSet<String>();
+		for( String file : files)
+		{
+			if ( !file.endsWith(".txt") ) continue;
+			
+			String png = file.substring( 0, file.length()-4) + ".png";
+			if ( pngs.contains( png) ) paired.add( png);
+		}
+		
+		for( String file : files)
+		{
+			if ( paired.contains( file) ) continue;
+			
+			String png = file.substring( 0, file.length()-4) + ".png";
+			if ( file.endsWith(".txt") && paired.contains( png) ) jobs.add( new String[] { png, file });
+			else jobs.add( new String[] { file });
+		}
+		
+		total = files.size();
+	}
+	
+	private void loadJob( String[] job)
+	{
+		try {
+			
+			if ( job.length == 2 )
+			{
+				String prefix = ROOT + job[0].substring( 0, job[0].length()-4);
+				SpriteCache.preload( prefix + ".png");
+				Sprite.readSlicing( prefix + ".txt");
+			}
+			else if ( job[0].endsWith(".png") ) SpriteCache.preload( ROOT + job[0]);
+			else readThrough( ROOT + job[0]);
+		
+		} catch ( Exception ex ) { ex.printStackTrace(); }
+	}
+	
+	private static void readThrough( String filepath) throws IOException
+	{
+		InputStream stream = AssetArchive.getStream( filepath);
+		if ( stream == null ) return;
+		
+		byte[] buf = new byte[8192];
+		while( stream.read( buf) >= 0 ) {}
+		stream.close();
+	}
+	
+	private class Load extends RecursiveAction {
+		
+		private static final long serialVersionUID = 8858437648988759930L;
+		
+		private int from, to;
+		
+		Load( int from, int to)
+		{
+			this.from = from;
+			this.to = to;
+		}
+		
+		protected void compute()
+		{
+			if ( to-from > 1 )
+			{
+				int mid = (from+to) >>> 1;
+				invokeAll( new Load( from, mid), new Load( mid, to));
+				return;
+			}
+			
+			if ( to <= from ) return;
+			
+			//a job is a sprite and its slicing file, or a file on its own
+			String[] job = jobs.get( from);
+			loadJob( job);
+			loaded.addAndGet( job.length);
+		}
+	}
+}
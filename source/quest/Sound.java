@@ -1,10 +1,12 @@
 package quest;
 
-import java.net.*;
+import java.io.*;
 import javax.sound.sampled.*;
 
 /*
  * A simple sound effect wrapper.
+ * If the clip can't be opened (eg there's no audio device), the
+ * Sound stays silent rather than failing when it's played.
  */
 
 public class Sound {
@@ -17,26 +19,29 @@ public class Sound {
 			
 			//open a stream to the given filepath
 			AudioInputStream stream;
-			URL url = getClass().getResource(filepath);
-			stream = AudioSystem.getAudioInputStream( url);
+			InputStream in = AssetArchive.getStream(filepath);
+			if ( !in.markSupported() ) in = new BufferedInputStream( in);
+			stream = AudioSystem.getAudioInputStream( in);
 			Line.Info info = new Line.Info(Clip.class);
+			if ( !AudioSystem.isLineSupported( info) ) { stream.close(); return; }
 			
 			//build a clip linked to that stream
 			clip = (Clip) AudioSystem.getLine(info);
 			clip.open( stream);
 			
-		} catch ( Exception e ) { e.printStackTrace(); return; }
+		} catch ( Exception e ) { e.printStackTrace(); clip = null; return; }
 	}
 	
 	public void play()
 	{
+		if ( clip == null ) return;
 		stop();
 		clip.start();
 	}
 	
 	public void repeat( int count)
 	{
-		if ( count < 1 ) return;
+		if ( count < 1 || clip == null ) return;
 		
 		stop();
 		clip.loop( count-1);
@@ -44,18 +49,21 @@ public class Sound {
 	
 	public void loop()
 	{
+		if ( clip == null ) return;
 		stop();
 		clip.loop( Clip.LOOP_CONTINUOUSLY);
 	}
 	
 	public void stop()
 	{
+		if ( clip == null ) return;
 		clip.setFramePosition( 0);
 		clip.stop();
 	}
 	
 	public void close()
 	{
+		if ( clip == null ) return;
 		clip.close();
 	}
 }
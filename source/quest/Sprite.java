@@ -2,10 +2,10 @@ package quest;
 
 import java.awt.*;
 import java.awt.image.*;
-import java.net.*;
 import java.io.InputStream;
 import java.util.Scanner;
 import java.io.IOException;
+import javax.imageio.ImageIO;
 
 /*
  * Convenience class for images. Handles loading, color-keying and
@@ -15,14 +15,30 @@ import java.io.IOException;
 public class Sprite {
 
 	private BufferedImage img;
+	private int rx, ry, rw, rh;		//this sprite's region of img; see SpriteAtlas
 	private int fWidth, fHeight, fXSep, fYSep, fXCount, fFrames;
 	
+	static {
+		//have ImageIO decode straight from memory, rather than spooling
+		//each image out to a temporary file first
+		ImageIO.setUseCache( false);
+	}
+	
 	public int getWidth() {
 		return fWidth;
 	}
 	
+	/*
+	 * The image this sprite draws from, which is shared with other
+	 * sprites if it's a SpriteAtlas page.
+	 */
+	
+	public Image getImage() {
+		return img;
+	}
+	
 	public int getRawWidth() {
-		return img.getWidth(null);
+		return rw;
 	}
 	
 	public int getHeight() {
@@ -30,47 +46,116 @@ public class Sprite {
 	}
 	
 	public int getRawHeight() {
-		return img.getHeight(null);
+		return rh;
 	}
 
 	public Sprite( String filepath) 
 	{
 		//System.out.println(filepath);
 		//String imageName = filepath.replaceAll(".*?/","");
-		URL imgURL;
-		/*if(Arrays.asList(Game.getGame().getFiles()).contains(imageName)) {
+		/*URL imgURL;
+		if(Arrays.asList(Game.getGame().getFiles()).contains(imageName)) {
 			try { 
 				imgURL = new File(Game.getGame().getRunningPath() + imageName).toURI().toURL();
 				System.out.println("Found alternative sprite for " + imageName + "; using it");
 			} catch(Exception e) {e.printStackTrace(); imgURL = getClass().getResource(filepath);}
-		} else {*/
-		//lift the image data from file
+		} else {
 			imgURL = getClass().getResource(filepath);
-		//}
-		//System.out.println(filepath);
-		Image tempImg = Toolkit.getDefaultToolkit().createImage(imgURL);
+		}*/
 		
-		//force image download to complete
-		MediaTracker mt = new MediaTracker( Game.getGame());
-		mt.addImage( tempImg, 1);
+		//lift the image data from file, or from the SpriteCache if
+		//it's been decoded already
+		SpriteCache.view( this, filepath);
+		
+		//set the default frame-separation settings
+		sliceFrames( rw, rh, 0, 0, 1, 1);
+	}
+	
+	/*
+	 * Wraps a region of an image which has already been decoded. Used by
+	 * SpriteCache, which gives every slicing of an image its own Sprite.
+	 * The region is the whole image, unless it's a SpriteAtlas page.
+	 */
+	
+	Sprite( BufferedImage img, int x, int y, int w, int h)
+	{
+		setRegion( img, x, y, w, h);
+		sliceFrames( w, h, 0, 0, 1, 1);
+	}
+	
+	void setRegion( BufferedImage img, int x, int y, int w, int h)
+	{
+		this.img = img;
+		rx = x;
+		ry = y;
+		rw = w;
+		rh = h;
+	}
+	
+	static BufferedImage decode( String filepath)
+	{
+		return decode( AssetArchive.getStream( filepath), filepath);
+	}
+	
+	/*
+	 * Decodes the image in the given stream and colour-keys it.
+	 * 
+	 * The PNG is decoded by ImageIO, normalised into a TYPE_INT_ARGB raster,
+	 * and keyed for (255,0,255), magenta, in a single pass over the raw int[].
+	 * Touching the raster directly stops Java2D from accelerating that image, 
+	 * so when there's a screen the result is copied into an image compatible 
+	 * with it. Nothing here needs a live window, so it's safe on background
+	 * threads and in headless runs.
+	 */
+	
+	private static BufferedImage decode( InputStream stream, String filepath)
+	{
+		BufferedImage src = null;
 		try {
-			mt.waitForAll();
-		} catch ( InterruptedException exI ) { exI.printStackTrace(); return;}
-		//copy the temp image to the storage image
-		img = new BufferedImage( tempImg.getWidth(null), tempImg.getHeight(null), BufferedImage.TYPE_INT_ARGB);
-		Graphics g = img.getGraphics();
-		g.drawImage( tempImg, 0, 0, null);
+			if ( stream != null )
+			{
+				src = ImageIO.read( stream);
+				stream.close();
+			}
+		} catch ( IOException exIO ) { exIO.printStackTrace(); }
 		
-		//colorkey the storage image for (255,0,255), magenta
-		for( int y=0; y<img.getHeight(null); y++)
-		for( int x=0; x<img.getWidth(null);  x++)
+		if ( src == null )
 		{
-			int pixel = img.getRGB( x, y);
-			if ( ( pixel & 0xffffff ) == 0xff00ff ) img.setRGB( x, y, 0x00ffffff);
+			System.out.println( "Couldn't load sprite " + filepath);
+			return new BufferedImage( 1, 1, BufferedImage.TYPE_INT_ARGB);
 		}
 		
-		//set the default frame-separation settings
-		sliceFrames( img.getWidth(null), img.getHeight(null), 0, 0, 1, 1);
+		int w = src.getWidth(), h = src.getHeight();
+		
+		//get the pixels into a plain ARGB int[] raster
+		BufferedImage keyed = src;
+		if ( src.getType() != BufferedImage.TYPE_INT_ARGB )
+		{
+			keyed = new BufferedImage( w, h, BufferedImage.TYPE_INT_ARGB);
+			Graphics g = keyed.getGraphics();
+			g.drawImage( src, 0, 0, null);
+			g.dispose();
+		}
+		int[] pixels = ((DataBufferInt) keyed.getRaster().getDataBuffer()).getData();
+		
+		//colorkey
+		for( int i=0; i<pixels.length; i++)
+		{
+			if ( ( pixels[i] & 0xffffff ) == 0xff00ff ) pixels[i] = 0x00ffffff;
+		}
+		
+		if ( GraphicsEnvironment.isHeadless() ) return keyed;
+		
+		//copy into a managed image in the screen's preferred format
+		GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment()
+								   .getDefaultScreenDevice().getDefaultConfiguration();
+		BufferedImage managed = gc.createCompatibleImage( w, h, Transparency.TRANSLUCENT);
+		Graphics2D g = managed.createGraphics();
+		g.setComposite( AlphaComposite.Src);
+		g.drawImage( keyed, 0, 0, null);
+		g.dispose();
+		
+		return managed;
 	}
 	
 	public void sliceFrames( int width, int height, int xsep, int ysep, int xcount, int fFrames)
@@ -98,24 +183,62 @@ public class Sprite {
 		
 		offx = offx * (fWidth+fXSep);
 		offy = offy * (fHeight+fYSep);
-		g.drawImage( img, x, y, x+fWidth, y+fHeight, offx, offy, offx+fWidth, offy+fHeight, null);
+		blit( g, x, y, offx, offy);
+		
+		FrameStats.count( FrameStats.SPRITES, 1);
+		FrameStats.count( FrameStats.PIXELS, fWidth*fHeight);
 	}
 	
 	//for drawing as a tileset
 	public void drawTile( Graphics g, int dx, int dy, int sx, int sy)
 	{
-		g.drawImage( img, dx, dy, dx+fWidth, dy+fHeight, sx*fWidth, 
-				     sy*fHeight, (sx+1)*fWidth, (sy+1)*fHeight, null);
+		blit( g, dx, dy, sx*fWidth, sy*fHeight);
+		
+		FrameStats.count( FrameStats.TILES, 1);
+		FrameStats.count( FrameStats.PIXELS, fWidth*fHeight);
 	}
 
 
+	/*
+	 * Draws the frame-sized area at (sx,sy) in this sprite. Anything
+	 * outside the sprite is cut off, as Java2D would do for an image of its
+	 * own, so a sprite in an atlas page never draws any of its neighbours.
+	 */
+	
+	private void blit( Graphics g, int dx, int dy, int sx, int sy)
+	{
+		int x1 = Math.max( sx, 0), y1 = Math.max( sy, 0);
+		int x2 = Math.min( sx+fWidth, rw), y2 = Math.min( sy+fHeight, rh);
+		if ( x2 <= x1 || y2 <= y1 ) return;
+		
+		dx += x1-sx;
+		dy += y1-sy;
+		g.drawImage( img, dx, dy, dx+(x2-x1), dy+(y2-y1), rx+x1, ry+y1, rx+x2, ry+y2, null);
+	}
+	
 	public int getFrames() {
 		return fFrames;
 	}
 	public static Sprite loadSprite(String spritePrefix, String type) {
 		Sprite newSprite = new Sprite(spritePrefix+type+".png");
+		int[] vals = readSlicing(spritePrefix + type + ".txt");
+		if(vals != null) {
+			newSprite.sliceFrames(vals[0],vals[1],vals[2],vals[3],vals[4],vals[5]);
+		}
+		return newSprite;
+	}
+	
+	/*
+	 * Reads the slicing out of a sprite's .txt file (the last line of six
+	 * values wins), or returns the one SpriteCache kept from the last time
+	 * the file was read. null if the file doesn't have one.
+	 */
+	
+	static int[] readSlicing(String filepath) {
+		int[] slicing = SpriteCache.getSlicingFile(filepath);
+		if(slicing != null) return slicing;
 		try {
-			InputStream fis = Game.getGame().getClass().getResource(spritePrefix + type + ".txt").openStream();
+			InputStream fis = AssetArchive.getStream(filepath);
 			Scanner sis = new Scanner(fis);
 			sis.useDelimiter("\\n");
 			while(sis.hasNext()) {
@@ -124,14 +247,16 @@ public class Sprite {
 				} else {
 					String[] vals = s.split(":");
 					if(vals.length == 6) {
-						newSprite.sliceFrames(Integer.parseInt(vals[0]),Integer.parseInt(vals[1]),
+						slicing = new int[] {Integer.parseInt(vals[0]),Integer.parseInt(vals[1]),
 						Integer.parseInt(vals[2]),Integer.parseInt(vals[3]),
-						Integer.parseInt(vals[4]),Integer.parseInt(vals[5]));
+						Integer.parseInt(vals[4]),Integer.parseInt(vals[5])};
 					}
 				}
 			}
+			fis.close();
 		} catch (IOException ioe) {}
-		return newSprite;
+		if(slicing != null) SpriteCache.putSlicingFile(filepath, slicing);
+		return slicing;
 	}
 
 }
@@ -0,0 +1,147 @@
+package quest;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+import java.util.List;
+
+/*
+ * Packs the small sprites that rooms are made of (walksprites, their
+ * animation strips, and doodads) into a few large pages, so that a frame's
+ * worth of draw calls mostly comes from one or two images rather than
+ * dozens, and a room's sprites take up a few pages rather than a raster
+ * each.
+ *
+ * Sprites are added as the SpriteCache decodes them, and packed into
+ * shelves: rows as tall as the tallest sprite in them, filled left to right.
+ * When a sprite doesn't fit on the current page, a new page is started.
+ * The region index maps each filepath to where its sprite ended up. Sprites
+ * too big for a page aren't packed, and keep a raster of their own.
+ *
+ * Regions are never freed; everything the atlas takes comes to a couple of
+ * pages at most, so they're kept for good. SpriteCache only uses the atlas
+ * under its lock, so nothing here is synchronised.
+ *
+ * A page is only written while nothing can be drawing from it. The atlas
+ * takes sprites until it's closed, which SpriteCache does before the first
+ * frame that could draw from it; after that, add() refuses everything it
+ * hasn't already packed. Otherwise a sprite decoded on the prefetch thread
+ * would be drawn into a page the game thread is drawing from, and the
+ * whole page's accelerated copy would be thrown away mid-game.
+ */
+
+public class SpriteAtlas {
+	
+	public static final int PAGE_SIZE = 1024;
+	
+	private static final String[] PACKED = { "/quest/sprites/walksprites/", "/quest/sprites/doodads/" };
+	
+	static class Region {
+		
+		BufferedImage page;
+		int x, y, w, h;
+		
+		Region( BufferedImage page, int x, int y, int w, int h)
+		{
+			this.page = page;
+			this.x = x;
+			this.y = y;
+			this.w = w;
+			this.h = h;
+		}
+	}
+	
+	private List<BufferedImage> pages = new ArrayList<BufferedImage>();
+	private HashMap<String,Region> regions = new HashMap<String,Region>();
+	private int shelfX = 0, shelfY = 0, shelfH = 0;
+	private boolean closed = false;
+	
+	/*
+	 * Says whether the sprite at the given (absolute) filepath
+	 * belongs in the atlas.
+	 */
+	
+	static boolean accepts( String filepath)
+	{
+		for( int i=0; i<PACKED.length; i++)
+		{
+			if ( filepath.startsWith( PACKED[i]) ) return true;
+		}
+		return false;
+	}
+	
+	/*
+	 * Copies the given image into the atlas, returning the region it
+	 * went into, or null if it's too big to pack or the atlas is closed.
+	 */
+	
+	Region add( String filepath, BufferedImage img)
+	{
+		Region region = regions.get( filepath);
+		if ( region != null ) return region;
+		
+		int w = img.getWidth(), h = img.getHeight();
+		if ( closed || w > PAGE_SIZE || h > PAGE_SIZE ) return null;
+		
+		//start a new shelf if this one's full, and a new page if that is
+		if ( pages.isEmpty() || shelfX + w > PAGE_SIZE )
+		{
+			shelfX = 0;
+			shelfY += shelfH;
+			shelfH = 0;
+		}
+		if ( pages.isEmpty() || shelfY + h > PAGE_SIZE )
+		{
+			pages.add( createPage());
+			shelfX = shelfY = shelfH = 0;
+		}
+		
+		BufferedImage page = pages.get( pages.size()-1);
+		Graphics2D g = page.createGraphics();
+		g.setComposite( AlphaComposite.Src);
+		g.drawImage( img, shelfX, shelfY, null);
+		g.dispose();
+		
+		region = new Region( page, shelfX, shelfY, w, h);
+		regions.put( filepath, region);
+		
+		shelfX += w;
+		shelfH = Math.max( shelfH, h);
+		return region;
+	}
+	
+	void close()
+	{
+		closed = true;
+	}
+	
+	Region getRegion( String filepath)
+	{
+		return regions.get( filepath);
+	}
+	
+	public int getPageCount()
+	{
+		return pages.size();
+	}
+	
+	public int getRegionCount()
+	{
+		return regions.size();
+	}
+	
+	/*
+	 * Pages are in the same format Sprite.decode() gives
+	 * standalone sprites.
+	 */
+	
+	private static BufferedImage createPage()
+	{
+		if ( GraphicsEnvironment.isHeadless() )
+			return new BufferedImage( PAGE_SIZE, PAGE_SIZE, BufferedImage.TYPE_INT_ARGB);
+		
+		GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment()
+								   .getDefaultScreenDevice().getDefaultConfiguration();
+		return gc.createCompatibleImage( PAGE_SIZE, PAGE_SIZE, Transparency.TRANSLUCENT);
+	}
+}
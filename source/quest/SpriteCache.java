@@ -0,0 +1,271 @@
+package quest;
+
+import java.awt.image.*;
+import java.util.*;
+
+/*
+ * A process-wide cache of decoded sprites, so an image that several rooms
+ * (or the same room, visited twice) use is only decoded once.
+ *
+ * Sprites are looked up by filepath and slicing. Each image is decoded
+ * once however it's sliced; every distinct slicing of it gets its own
+ * Sprite, which is shared by everyone who asks for that slicing, so it
+ * mustn't be sliced again afterwards.
+ *
+ * Every acquire() holds a reference to the image until the matching
+ * release(); usually SpriteBank keeps track of these. Images nobody holds
+ * are kept around in case they're wanted again, until the cache goes over
+ * its byte budget, when the least recently used of them are dropped.
+ * Images that are held are never dropped, even over budget.
+ *
+ * Sprites constructed directly from a filepath (as the battle code does)
+ * get their images through view(), which doesn't take a reference; and
+ * the Preloader fills the cache through preload() at startup.
+ *
+ * The slicings read from sprites' .txt files by Sprite.loadSprite() are
+ * kept here as well, so each file is only parsed once. They're a handful
+ * of ints apiece, and are never dropped.
+ *
+ * Walksprites, animation strips and doodads are packed into SpriteAtlas
+ * pages as they're decoded, and their Sprites are views onto regions of
+ * those pages. Packed sprites are never evicted; the pages are counted
+ * towards the cache's size, but can't be given back. Once anything may be
+ * drawing from the pages, closeAtlas() is called, and sprites decoded
+ * after that keep rasters of their own.
+ *
+ * Filepaths relative to the quest package are made absolute, so
+ * "sprites/x.png" and "/quest/sprites/x.png" are the same image.
+ *
+ * Everything here is synchronised, since rooms are loaded on
+ * RoomPrefetcher's thread as well as the game thread. Images are decoded
+ * outside the lock.
+ */
+
+public class SpriteCache {
+	
+	public static final long DEFAULT_BUDGET = 32L << 20;
+	
+	private static class Entry {
+		
+		BufferedImage img;
+		int x, y, w, h;		//the sprite's region of img
+		boolean packed;
+		long bytes;
+		int refs = 0;
+		HashMap<String,Sprite> slicings = new HashMap<String,Sprite>(4);
+		
+		Entry( BufferedImage img)
+		{
+			this.img = img;
+			w = img.getWidth();
+			h = img.getHeight();
+			bytes = 4L * w * h;
+		}
+		
+		Entry( SpriteAtlas.Region region)
+		{
+			img = region.page;
+			x = region.x;
+			y = region.y;
+			w = region.w;
+			h = region.h;
+			packed = true;
+			bytes = 0;
+		}
+		
+		Sprite createSprite()
+		{
+			return new Sprite( img, x, y, w, h);
+		}
+	}
+	
+	//in access order, so the eldest entries are the least recently used
+	private static LinkedHashMap<String,Entry> entries = new LinkedHashMap<String,Entry>( 128, 0.75f, true);
+	private static SpriteAtlas atlas = new SpriteAtlas();
+	private static long budget = DEFAULT_BUDGET;
+	private static long bytes = 0;
+	private static long hits = 0, misses = 0, evictions = 0;
+	private static HashMap<String,int[]> slicingFiles = new HashMap<String,int[]>();
+	
+	/*
+	 * Returns the sprite at the given path, with the default slicing
+	 * (one frame, the size of the whole image).
+	 */
+	
+	public static Sprite acquire( String filepath)
+	{
+		Entry entry = lookup( filepath, true);
+		synchronized( SpriteCache.class )
+		{
+			Sprite sprite = entry.slicings.get( "");
+			if ( sprite == null ) entry.slicings.put( "", sprite = entry.createSprite());
+			return sprite;
+		}
+	}
+	
+	/*
+	 * Returns the sprite at the given path, sliced as by
+	 * Sprite.sliceFrames().
+	 */
+	
+	public static Sprite acquire( String filepath, int width, int height, int xsep, int ysep, int xcount, int frames)
+	{
+		Entry entry = lookup( filepath, true);
+		String key = width+","+height+","+xsep+","+ysep+","+xcount+","+frames;
+		synchronized( SpriteCache.class )
+		{
+			Sprite sprite = entry.slicings.get( key);
+			if ( sprite == null )
+			{
+				sprite = entry.createSprite();
+				sprite.sliceFrames( width, height, xsep, ysep, xcount, frames);
+				entry.slicings.put( key, sprite);
+			}
+			return sprite;
+		}
+	}
+	
+	/*
+	 * Gives up one reference to the image at the given path.
+	 */
+	
+	public static synchronized void release( String filepath)
+	{
+		Entry entry = entries.get( absolute( filepath));
+		if ( entry == null || entry.refs == 0 ) return;
+		
+		entry.refs--;
+		if ( entry.refs == 0 ) evict();
+	}
+	
+	/*
+	 * Points a newly-constructed Sprite at the given image, without
+	 * holding a reference to it. If it's evicted, the Sprite keeps it
+	 * alive for as long as it needs it.
+	 */
+	
+	static void view( Sprite sprite, String filepath)
+	{
+		Entry entry = lookup( filepath, false);
+		sprite.setRegion( entry.img, entry.x, entry.y, entry.w, entry.h);
+	}
+	
+	/*
+	 * Stops packing newly-decoded sprites into the atlas, so that its
+	 * pages can be drawn from while other threads load sprites.
+	 */
+	
+	public static synchronized void closeAtlas()
+	{
+		atlas.close();
+	}
+	
+	/*
+	 * Decodes the given image into the cache, if it isn't there already.
+	 */
+	
+	public static void preload( String filepath)
+	{
+		lookup( filepath, false);
+	}
+	
+	/*
+	 * The slicing read from the given .txt file, if anyone has read it.
+	 */
+	
+	static synchronized int[] getSlicingFile( String filepath)
+	{
+		return slicingFiles.get( absolute( filepath));
+	}
+	
+	static synchronized void putSlicingFile( String filepath, int[] slicing)
+	{
+		slicingFiles.put( absolute( filepath), slicing);
+	}
+	
+	public static synchronized void setBudget( long newBudget)
+	{
+		budget = Math.max( 0, newBudget);
+		evict();
+	}
+	
+	public static synchronized long getBytes() { return bytes; }
+	public static synchronized long getHits() { return hits; }
+	public static synchronized long getMisses() { return misses; }
+	public static synchronized long getEvictions() { return evictions; }
+	public static synchronized int getAtlasPages() { return atlas.getPageCount(); }
+	
+	/*
+	 * Finds the given image, decoding it first if it isn't cached, and
+	 * optionally takes a reference to it.
+	 */
+	
+	private static Entry lookup( String filepath, boolean reference)
+	{
+		filepath = absolute( filepath);
+		synchronized( SpriteCache.class )
+		{
+			Entry entry = entries.get( filepath);
+			if ( entry != null )
+			{
+				hits++;
+				if ( reference ) entry.refs++;
+				return entry;
+			}
+		}
+		
+		BufferedImage img = Sprite.decode( filepath);
+		
+		synchronized( SpriteCache.class )
+		{
+			//another thread may have decoded it in the meantime
+			misses++;
+			Entry entry = entries.get( filepath);
+			if ( entry == null )
+			{
+				entry = pack( filepath, img);
+				entries.put( filepath, entry);
+				bytes += entry.bytes;
+			}
+			if ( reference ) entry.refs++;
+			evict();
+			return entry;
+		}
+	}
+	
+	private static String absolute( String filepath)
+	{
+		return filepath.startsWith( "/") ? filepath : "/quest/" + filepath;
+	}
+	
+	/*
+	 * Makes an entry for a newly-decoded image, packing it into
+	 * the atlas if it belongs there.
+	 */
+	
+	private static Entry pack( String filepath, BufferedImage img)
+	{
+		if ( !SpriteAtlas.accepts( filepath) ) return new Entry( img);
+		
+		int pages = atlas.getPageCount();
+		SpriteAtlas.Region region = atlas.add( filepath, img);
+		if ( region == null ) return new Entry( img);
+		
+		bytes += 4L * SpriteAtlas.PAGE_SIZE * SpriteAtlas.PAGE_SIZE * (atlas.getPageCount() - pages);
+		return new Entry( region);
+	}
+	
+	private static void evict()
+	{
+		Iterator<Entry> it = entries.values().iterator();
+		while( bytes > budget && it.hasNext() )
+		{
+			Entry entry = it.next();
+			if ( entry.refs > 0 || entry.packed ) continue;
+			
+			it.remove();
+			bytes -= entry.bytes;
+			evictions++;
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package quest;
+
+import java.awt.event.KeyEvent;
+import java.util.Random;
+
+/*
+ * An InputSource which wanders around at random. It holds down a
+ * direction key for a while (or stands still), then picks again, and 
+ * every so often taps E, which interacts with things and pages 
+ * through text boxes. The same seed always produces the same input.
+ */
+
+public class WanderInput implements InputSource {
+	
+	private static final int[] DIRKEYS = { KeyEvent.VK_W, KeyEvent.VK_D, KeyEvent.VK_S, KeyEvent.VK_A };
+	
+	private Random random;
+	private int heldKey = -1, holdTime = 0;
+	
+	public WanderInput( long seed)
+	{
+		random = new Random( seed);
+	}
+	
+	public boolean nextTick( InputMap input)
+	{
+		//choose a new direction (or none) when the current one runs out
+		if ( holdTime <= 0 )
+		{
+			int k = random.nextInt( DIRKEYS.length+1);
+			heldKey = ( k < DIRKEYS.length ) ? DIRKEYS[k] : -1;
+			holdTime = 10 + random.nextInt( 50);
+		}
+		holdTime--;
+		
+		for( int i=0; i<DIRKEYS.length; i++) input.hold( DIRKEYS[i], DIRKEYS[i] == heldKey);
+		input.hold( KeyEvent.VK_E, random.nextInt( 20) == 0);
+		
+		return true;
+	}
+}
@@ -0,0 +1,83 @@
+package quest.field;
+
+import quest.*;
+import java.util.*;
+
+/*
+ * Every NPC animation strip in the walksprites/animations directory,
+ * indexed by the walksprite it belongs to. A strip is named after its
+ * walksprite and then the animation ("nepeta_dance.png" belongs to
+ * nepeta.png, and is its "dance" animation), so RNPC can look an NPC's
+ * animations up by name rather than searching the directory for them.
+ *
+ * The index is built once, from the directory's index.txt, the first
+ * time it's needed (Preloader asks for it at startup), and is shared and
+ * never changed after that. A strip is filed under every prefix of its
+ * name that ends at an underscore, so a walksprite with an underscore of
+ * its own in its name still finds its strips.
+ */
+
+public class AnimationIndex {
+	
+	public static final String PATH = Game.SPRITEPATH + "walksprites/animations/";
+	
+	private static HashMap<String,Map<String,String>> strips = null;
+	
+	/*
+	 * Builds the index, if it hasn't been already.
+	 */
+	
+	public static void load()
+	{
+		getIndex();
+	}
+	
+	/*
+	 * Returns the given walksprite's animations (its filename without
+	 * the .png), as a map from animation name to strip filepath, in the
+	 * directory's order. Returns an empty map if it has none.
+	 */
+	
+	static Map<String,String> getStrips( String npcname)
+	{
+		Map<String,String> found = getIndex().get( npcname);
+		if ( found == null ) return Collections.emptyMap();
+		return found;
+	}
+	
+	private static synchronized HashMap<String,Map<String,String>> getIndex()
+	{
+		if ( strips == null ) strips = build();
+		return strips;
+	}
+	
+	private static HashMap<String,Map<String,String>> build()
+	{
+		HashMap<String,Map<String,String>> index = new HashMap<String,Map<String,String>>();
+		
+		for( String file : new Directory( Game.SPRITEPATH + "walksprites/animations").getFileList())
+		{
+			if ( !file.endsWith(".png") ) continue;
+			
+			String name = file.substring( 0, file.length()-4);
+			for( int i=name.indexOf('_'); i>=0; i=name.indexOf( '_', i+1))
+			{
+				String npcname = name.substring( 0, i);
+				Map<String,String> found = index.get( npcname);
+				if ( found == null )
+				{
+					found = new LinkedHashMap<String,String>();
+					index.put( npcname, found);
+				}
+				found.put( name.substring( i+1), PATH + file);
+			}
+		}
+		
+		//nothing changes them from here on
+		for( Map.Entry<String,Map<String,String>> entry : index.entrySet())
+		{
+			entry.setValue( Collections.unmodifiableMap( entry.getValue()));
+		}
+		return index;
+	}
+}
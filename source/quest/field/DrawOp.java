@@ -1,96 +1,223 @@
 package quest.field;
 
-import java.util.*;
-import java.util.List;
 import java.awt.*;
 import quest.*;
 
 /*
- * A sorted list in which drawing operations can be
+ * A queue in which drawing operations can be
  * accumulated. When flush() is called, all of the
  * queued drawing operations are executed immediately.
- * 
+ *
  * Drawing operations are sorted in negative depth order
  * (Ops with a lower depth are drawn "on top of" Ops
- * with a higher depth). Operations with equal depth 
+ * with a higher depth). Operations with equal depth
  * are performed in the order they were passed to DrawOp.
+ *
+ * Ops aren't objects; each one is a slot across a set of
+ * parallel arrays, which only grow when a frame queues more
+ * ops than any frame before it. Submission is constant-time,
+ * and the queue is sorted once per flush with a stable radix
+ * sort, so a frame produces no garbage.
  */
 
 public class DrawOp {
 	
-	private List<Op> list;
-
+	private static final int INITIAL_CAPACITY = 256;
+	
+	//the op slots
+	private Sprite[] sprite;
+	private int[] x, y, depth;
+	private boolean[] isTile;
+	private int[] frame, tx, ty;
+	private int size = 0;
+	
+	//the tilemap whose ground band is already underneath the queue
+	private Tilemap ground;
+	private Sprite groundTileset;
+	private int[] coverMark = new int[0];
+	private int coverPass = 0;
+	
+	//sorting workspace
+	private int[] key, order, scratch;
+	private int[] counts = new int[256];
+	
 	/*
-	 * The Op class represents a single
-	 * drawing operation.
+	 * Constructor.
 	 */
 	
-	class Op {
-		public Sprite sprite;
-		public int x, y, depth;
-		public boolean isTile;
-		public int frame, tx, ty;
+	DrawOp()
+	{
+		allocate( INITIAL_CAPACITY);
+	}
+	
+	private void allocate( int capacity)
+	{
+		Sprite[] oldSprite = sprite;
+		int[] oldX = x, oldY = y, oldDepth = depth;
+		boolean[] oldIsTile = isTile;
+		int[] oldFrame = frame, oldTx = tx, oldTy = ty;
+		
+		sprite = new Sprite[capacity];
+		x = new int[capacity]; y = new int[capacity]; depth = new int[capacity];
+		isTile = new boolean[capacity];
+		frame = new int[capacity]; tx = new int[capacity]; ty = new int[capacity];
+		key = new int[capacity]; order = new int[capacity]; scratch = new int[capacity];
 		
-		Op( Sprite sprite, int x, int y, int depth, boolean isTile, int frame, int tx, int ty)
+		if ( oldSprite != null )
 		{
-			this.sprite = sprite;
-			this.x = x; this.y = y; this.depth = depth;
-			this.isTile = isTile; this.frame = frame;
-			this.tx = tx; this.ty = ty;
+			System.arraycopy( oldSprite, 0, sprite, 0, size);
+			System.arraycopy( oldX, 0, x, 0, size);
+			System.arraycopy( oldY, 0, y, 0, size);
+			System.arraycopy( oldDepth, 0, depth, 0, size);
+			System.arraycopy( oldIsTile, 0, isTile, 0, size);
+			System.arraycopy( oldFrame, 0, frame, 0, size);
+			System.arraycopy( oldTx, 0, tx, 0, size);
+			System.arraycopy( oldTy, 0, ty, 0, size);
 		}
 	}
 	
 	/*
-	 * Constructor.
+	 * Claims the next op slot, growing the arrays if necessary.
 	 */
 	
-	DrawOp()
+	private int push( Sprite s, int px, int py, int pdepth)
+	{
+		if ( size == sprite.length ) allocate( size*2);
+		
+		int i = size++;
+		sprite[i] = s;
+		x[i] = px; y[i] = py; depth[i] = pdepth;
+		return i;
+	}
+	
+	/*
+	 * Drawing operation requests.
+	 * Coordinates provided are relative to the topleft corner of the room.
+	 */
+	
+	public void drawSprite( Sprite sprite, int x, int y, int depth, int frame)
 	{
-		list = new LinkedList<Op>();
+		int i = push( sprite, x, y, depth);
+		this.isTile[i] = false;
+		this.frame[i] = frame;
+		this.tx[i] = 0; this.ty[i] = 0;
+	}
+	
+	public void drawTile( Sprite sprite, int x, int y, int depth, int tx, int ty)
+	{
+		int i = push( sprite, x, y, depth);
+		this.isTile[i] = true;
+		this.frame[i] = 0;
+		this.tx[i] = tx; this.ty[i] = ty;
 	}
 	
 	/*
-	 * Sorted insertion into the list.
-	 * Depth values decrease while the index increases.
+	 * Tells the queue that the ground band of a tilemap has been drawn
+	 * underneath it (see TileChunkCache), for the next flush only.
+	 *
+	 * A sprite whose image hangs below its depth line (an RDoodad, say)
+	 * can have ground tiles in front of it, which the band would otherwise
+	 * leave behind it. flush() queues those tiles again, so the frame comes
+	 * out as it would if the whole tilemap had gone through the queue.
 	 */
 	
-	private void insertOp( Op op)
+	void setGround( Tilemap tilemap, Sprite tileset)
 	{
-		if ( list.size() == 0 ) 
-		{
-			list.add( op);
-		}
-		else
+		ground = (tileset != null) ? tilemap : null;
+		groundTileset = tileset;
+	}
+	
+	/*
+	 * Queues every ground tile which overlaps one of the first 'queued'
+	 * sprites and lies at a lower depth than it. Each tile is queued once,
+	 * however many sprites it covers.
+	 */
+	
+	private void coverOverhangs( int queued)
+	{
+		int w = ground.getWidth(), h = ground.getHeight();
+		if ( coverMark.length < w*h*4 ) coverMark = new int[w*h*4];
+		coverPass++;
+		
+		for( int i=0; i<queued; i++)
 		{
-			ListIterator<Op> it = list.listIterator();
+			if ( isTile[i] ) continue;
+			
+			//only the part of the sprite below its depth line can have ground in front of it
+			int top = Math.max( y[i], -depth[i]+1), bottom = y[i]+sprite[i].getHeight();
+			if ( bottom <= top ) continue;
 			
-			while ( it.hasNext() )
+			int cx1 = Math.max( 0, Math.floorDiv( x[i], Room.TILEW));
+			int cy1 = Math.max( 0, Math.floorDiv( top, Room.TILEH));
+			int cx2 = Math.min( w-1, Math.floorDiv( x[i]+sprite[i].getWidth()-1, Room.TILEW));
+			int cy2 = Math.min( h-1, Math.floorDiv( bottom-1, Room.TILEH));
+			
+			for( int cy=cy1; cy<=cy2; cy++)
+			for( int cx=cx1; cx<=cx2; cx++)
 			{
-				Op op2 = it.next();
-				if ( op2.depth < op.depth ) break;
+				Tilemap.Stack s = ground.getStackReference( cx, cy);
+				
+				for( int l=0; l<4; l++)
+				{
+					int mark = ((cy*w+cx)<<2)+l;
+					int d = (s.getDepth(l)-cy)*Room.TILEH;
+					
+					if ( coverMark[mark] == coverPass || d >= depth[i] ) continue;
+					if ( s.getTileX(l) < 0 || s.getTileY(l) < 0 || !Tilemap.isGround( s, l) ) continue;
+					
+					coverMark[mark] = coverPass;
+					drawTile( groundTileset, cx*Room.TILEW, cy*Room.TILEH, d, s.getTileX(l), s.getTileY(l));
+				}
 			}
-			
-			it.previous();
-			if ( it.next().depth >= op.depth ) { it.add( op); }
-			else { if ( it.hasPrevious() ) it.previous(); it.add( op); }
 		}
 	}
 	
 	/*
-	 * Drawing operation requests.
-	 * Coordinates provided are relative to the topleft corner of the room.
+	 * Sorting.
+	 * Leaves order[] holding the op indices from highest depth to lowest,
+	 * with equal depths kept in submission order. This is an LSD radix sort
+	 * over the bytes of a key which ascends as depth descends; passes in
+	 * which every op shares the same byte (usually the upper two) are skipped.
+	 *
+	 * Ops after the first 'queued' were added by coverOverhangs(), and stand
+	 * in for tiles which would have been submitted before everything else,
+	 * so they start at the front.
 	 */
 	
-	public void drawSprite( Sprite sprite, int x, int y, int depth, int frame)
-	{
-		Op op = new Op( sprite, x, y, depth, false, frame, 0, 0);
-		insertOp( op);
-	}
-	
-	public void drawTile( Sprite sprite, int x, int y, int depth, int tx, int ty)
+	private void sort( int queued)
 	{
-		Op op = new Op( sprite, x, y, depth, true, 0, tx, ty);
-		insertOp( op);
+		int extra = size-queued;
+		for( int i=0; i<size; i++)
+		{
+			order[i] = (i < extra) ? queued+i : i-extra;
+			key[i] = ~(depth[i] ^ 0x80000000);
+		}
+		
+		for( int shift=0; shift<32; shift+=8)
+		{
+			for( int b=0; b<256; b++) counts[b] = 0;
+			for( int i=0; i<size; i++) counts[(key[i]>>>shift)&0xff]++;
+			
+			if ( counts[(key[0]>>>shift)&0xff] == size ) continue;
+			
+			int total = 0;
+			for( int b=0; b<256; b++)
+			{
+				int c = counts[b];
+				counts[b] = total;
+				total += c;
+			}
+			
+			for( int k=0; k<size; k++)
+			{
+				int i = order[k];
+				scratch[counts[(key[i]>>>shift)&0xff]++] = i;
+			}
+			
+			int[] swap = order;
+			order = scratch;
+			scratch = swap;
+		}
 	}
 	
 	/*
@@ -99,17 +226,32 @@ public class DrawOp {
 	
 	public void flush( Graphics g, int offx, int offy)
 	{
-		//render the list from highest depth to lowest
-		for( int i=0; i<list.size(); i++)
+		int queued = size;
+		if ( ground != null ) coverOverhangs( queued);
+		ground = null;
+		groundTileset = null;
+		
+		if ( size > 0 ) sort( queued);
+		FrameStats.count( FrameStats.OPS, size);
+		
+		//render the queue from highest depth to lowest, counting how
+		//often the source image changes from one op to the next
+		Image source = null;
+		int switches = 0;
+		for( int k=0; k<size; k++)
 		{
-			Op op = (Op) list.get(i);
+			int i = order[k];
 			
-			if ( op.isTile == false )
-				op.sprite.drawFrame( g, op.x-offx, op.y-offy, op.frame);
+			if ( sprite[i].getImage() != source ) { source = sprite[i].getImage(); switches++; }
+			if ( isTile[i] == false )
+				sprite[i].drawFrame( g, x[i]-offx, y[i]-offy, frame[i]);
 			else
-				op.sprite.drawTile( g, op.x-offx, op.y-offy, op.tx, op.ty);
+				sprite[i].drawTile( g, x[i]-offx, y[i]-offy, tx[i], ty[i]);
+			
+			sprite[i] = null;
 		}
+		FrameStats.count( FrameStats.SWITCHES, switches);
 		
-		list.clear();
+		size = 0;
 	}
 }
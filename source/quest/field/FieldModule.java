@@ -29,6 +29,7 @@ import java.util.List;
 public class FieldModule extends Module {
 
 	public static final int type = 2;
+	public static final String START_ROOM = "lawnring.nqr";
 	public static FieldModule module = null;
 	
 	private Room currentRoom;
@@ -36,6 +37,11 @@ public class FieldModule extends Module {
 	private TextBox textBox;
 	private DrawOp drawOp;
 	private Transition currentTransition;
+	private StepLOD stepLOD;
+	private ParallelStepper parallelStepper;
+	private RoomPrefetcher roomPrefetcher;
+	private SpriteBank spriteBank = new SpriteBank();
+	private int[] stepTicks = new int[64];
 	
 	//FieldModule state
 	private int viewX, viewY;
@@ -51,23 +57,43 @@ public class FieldModule extends Module {
 	private int pdir = Actor.SOUTH, pdir_prev = Actor.SOUTH;
 	
 	public FieldModule()
+	{
+		this( Game.DATAPATH+START_ROOM);
+		
+		Game.getGame().setBackgroundMusic( Game.MUSICPATH+"field_carcrab.ogg");
+	}
+	
+	/*
+	 * Starts the field engine in the given room, leaving the background
+	 * music alone. Used by headless runs and the benchmarks.
+	 */
+	
+	public FieldModule( String roompath)
 	{
 		module = this;
 		frameBuffer = new BufferedImage( Game.SCREENW, Game.SCREENH, BufferedImage.TYPE_INT_ARGB);
 		
-		player = new Player( 475, 45, Actor.SOUTH);
+		player = new Player( 475, 45, Actor.SOUTH, spriteBank);
 		viewX = player.x-Game.SCREENW/2;
 		viewY = player.y-Game.SCREENH/2;
 		
-		currentRoom = new Room( Game.DATAPATH+"lawnring.nq2");
+		currentRoom = RoomPrefetcher.load( roompath);
+		FrameStats.setLabel( roompath.substring( roompath.lastIndexOf('/')+1));
 		currentScript = new FieldScript(currentRoom.getInitScript());
 		currentTransition = null;
 		textBox = new TextBox();
 		drawOp = new DrawOp();
+		stepLOD = new StepLOD();
+		parallelStepper = new ParallelStepper();
+		roomPrefetcher = new RoomPrefetcher();
 		
-		player.init(currentRoom);
+		//the first frame is about to draw from the atlas, and the
+		//prefetcher is about to start loading sprites alongside it
+		SpriteCache.closeAtlas();
 		
-		Game.getGame().setBackgroundMusic( Game.MUSICPATH+"field_carcrab.ogg");
+		currentRoom.attach( player);
+		roomPrefetcher.roomChanged( currentRoom);
+		player.init(currentRoom);
 	}
 	
 	public static FieldModule get()
@@ -81,16 +107,27 @@ public class FieldModule extends Module {
 		return module;
 	}
 	
-	private void render()
+	public void render()
 	{
+		//while a Transition is running, it supplies the whole frame
+		if ( currentTransition != null )
+		{
+			Graphics g = frameBuffer.getGraphics();
+			g.drawImage( currentTransition.getFrame(), 0, 0, null);
+			return;
+		}
+		
 		//blank the framebuffer
 		Graphics g = frameBuffer.getGraphics();
 		g.setColor( Color.black);
 		g.fillRect( 0, 0, frameBuffer.getWidth(null), frameBuffer.getHeight(null));
 		
-		//retrieve the current room's tilemap and draw it
+		//retrieve the current room's tilemap and draw it. the ground band comes
+		//straight from the room's chunk cache; everything else is depth-sorted.
 		Tilemap tilemap = currentRoom.getTilemap();
-		tilemap.drawTo( drawOp, currentRoom.getTileset(), viewX, viewY);
+		currentRoom.getTileCache().drawTo( g, viewX, viewY);
+		drawOp.setGround( tilemap, currentRoom.getTileset());
+		tilemap.drawOverlayTo( drawOp, currentRoom.getTileset(), viewX, viewY);
 		
 		//render the player
 		player.draw( drawOp);
@@ -104,10 +141,14 @@ public class FieldModule extends Module {
 		}
 		
 		//flush the drawing queue
+		FrameStats.begin( FrameStats.FLUSH);
 		drawOp.flush( g, viewX, viewY);
+		FrameStats.end( FrameStats.FLUSH);
 		
 		//draw the text box as an overlay
+		FrameStats.begin( FrameStats.TEXTBOX);
 		textBox.drawTo( g);
+		FrameStats.end( FrameStats.TEXTBOX);
 		
 		//when fading to black, darken everything on-screen
 		if ( fadeAlpha > 0 )
@@ -146,25 +187,38 @@ public class FieldModule extends Module {
 			}
 			else
 			{
-				Image frame = currentTransition.getFrame();
-				Graphics g = frameBuffer.getGraphics();
-				g.drawImage( frame, 0, 0, null);
-				
 				return;
 			}
 		}
 		
 		//various things might cause the entire field engine to be paused.
-		//if so, room objects shouldn't receive any events other than onDraw,
-		//and Nepeta should not respond to player input.
+		//if so, room objects shouldn't receive any events other than onAnimate
+		//and onDraw, and Nepeta should not respond to player input.
 		boolean isPaused = (currentScript != null || switchingRooms >= 0 );
 		if ( !isPaused )
 		{
 			//invoke certain event methods for each room object
-			Iterator<RObject> it = currentRoom.getObjectList().iterator();
-			while ( it.hasNext() )
+			FrameStats.begin( FrameStats.OBJECTS);
+			//only objects near Nepeta, and objects which do something every
+			//step, need visiting. they come back in the room's object order.
+			ObjectGrid grid = currentRoom.getObjectGrid();
+			stepLOD.beginStep( viewX, viewY);
+			int count = grid.gather( player.x-player.w/2, player.y-player.h/2, player.w, player.h);
+			
+			//work out how many ticks StepLOD wants each object stepped by,
+			//then give ParallelStepper a chance to get ahead on the moves
+			if ( stepTicks.length < count ) stepTicks = new int[count*2];
+			for( int i=0; i<count; i++)
+			{
+				RObject obj = grid.getVisited(i);
+				if ( obj.isEnabled() == false ) stepTicks[i] = 0;
+				else stepTicks[i] = obj.isStepped() ? stepLOD.ticksFor( obj) : 1;
+			}
+			parallelStepper.plan( currentRoom.getWalkmap(), grid, count, stepTicks);
+			
+			for( int i=0; i<count; i++)
 			{
-				RObject obj = it.next();
+				RObject obj = grid.getVisited(i);
 				if ( obj.isEnabled() == false ) continue;
 				
 				//onInteract
@@ -172,27 +226,38 @@ public class FieldModule extends Module {
 				if ( obj.isInteractable( player.x, player.y, player.w, player.h, player.dir) ) 
 				obj.onInteract();
 				
-				//onStep
-				obj.onStep();
+				//onStep, unless StepLOD says the object is too far away
+				int ticks = stepTicks[i];
+				if ( ticks == 1 ) obj.onStep();
+				else if ( ticks > 1 ) obj.onStep( ticks);
 				
 				//onContact
-				Rectangle obounds = obj.getBounds();
-				Rectangle pbounds = new Rectangle(player.x-player.w/2,player.y-player.h/2,
-												  player.w, player.h);
-				if ( obounds.intersects(pbounds) ) obj.onContact();
+				if ( obj.touches( player.x, player.y, player.w, player.h) ) obj.onContact();
 			}
+			parallelStepper.finish();
+			FrameStats.end( FrameStats.OBJECTS);
 		}
 		
 		//handle movement
-		if ( !isPaused ) movePlayer();
+		if ( !isPaused ) 
+		{
+			FrameStats.begin( FrameStats.MOVEPLAYER);
+			movePlayer();
+			FrameStats.end( FrameStats.MOVEPLAYER);
+		}
 		moveViewport();
 		
+		//start loading the rooms behind any gates Nepeta is close to
+		roomPrefetcher.update( player.x, player.y);
+		
 		//perform the current script until it's either finished
 		//completely, or finished for the current step.
 		if ( currentScript != null && !textBox.isVisible() ) 
 		{
+			FrameStats.begin( FrameStats.SCRIPT);
 			if ( currentScript.run() == false ) 
 			currentScript = null;
+			FrameStats.end( FrameStats.SCRIPT);
 		}
 		
 		//update the TextBox
@@ -212,7 +277,16 @@ public class FieldModule extends Module {
 			
 			if ( roomSwitchTimer <= 0 )
 			{
-				currentRoom = new Room( destRoom);
+				//usually the room has been loaded in the background already
+				FrameStats.begin( FrameStats.ROOMLOAD);
+				Room oldRoom = currentRoom;
+				currentRoom = roomPrefetcher.take( destRoom);
+				currentRoom.attach( player);
+				oldRoom.release();
+				roomPrefetcher.roomChanged( currentRoom);
+				FrameStats.end( FrameStats.ROOMLOAD);
+				
+				FrameStats.setLabel( destRoom.substring( Game.DATAPATH.length()));
 				currentScript = new FieldScript( currentRoom.getInitScript());
 				player.teleport( destX, destY);
 				viewX = player.x - Game.SCREENW/2;
@@ -225,13 +299,24 @@ public class FieldModule extends Module {
 			}
 		}
 		
-		//render to the framebuffer
-		//we disable this if a transition has been called, to prevent a one-frame "jitter".
-		if ( currentTransition == null ) render();
+		//advance every animation by a tick, paused or not, unless a Transition
+		//has taken over the screen. drawing only reads them, so they run at
+		//the tick rate whatever the frame rate.
+		if ( currentTransition == null )
+		{
+			player.onAnimate();
+			List<RObject> objects = currentRoom.getObjectList();
+			for( int i=0; i<objects.size(); i++)
+			{
+				if ( objects.get(i).isEnabled() ) objects.get(i).onAnimate();
+			}
+		}
 	}
 	
 	public void exit()
 	{
+		currentRoom.release();
+		spriteBank.release();
 	}
 	
 	/*
@@ -275,6 +360,36 @@ public class FieldModule extends Module {
 		pmoving = false;
 	}
 	
+	/*
+	 * The player, the viewport, the room and everything in it, and 
+	 * whatever's currently suspending the field engine.
+	 */
+	
+	public int getChecksum()
+	{
+		int hash = currentRoom.getFilepath().hashCode();
+		hash = 31*hash + player.x;
+		hash = 31*hash + player.y;
+		hash = 31*hash + player.dir;
+		hash = 31*hash + (pmoving ? 1 : 0);
+		hash = 31*hash + viewX;
+		hash = 31*hash + viewY;
+		hash = 31*hash + fadeAlpha;
+		hash = 31*hash + switchingRooms;
+		hash = 31*hash + (textBox.isVisible() ? 1 : 0);
+		hash = 31*hash + (currentScript != null ? 1 : 0);
+		hash = 31*hash + (currentTransition != null ? 1 : 0);
+		
+		for( RObject obj : currentRoom.getObjectList())
+		{
+			hash = 31*hash + obj.x;
+			hash = 31*hash + obj.y;
+			hash = 31*hash + (obj.isEnabled() ? 1 : 0);
+		}
+		
+		return hash;
+	}
+	
 	/*
 	 * Getters.
 	 */
@@ -294,21 +409,15 @@ public class FieldModule extends Module {
 		/*
 		 * FieldScripts identify room objects based on their
 		 * name (aka their string id). getObject and getActor
-		 * are used pretty much exclusively by FieldScript.
+		 * are used pretty much exclusively by FieldScript, so
+		 * they wake the object up if StepLOD had it sleeping.
 		 */
 		
 		id = id.toLowerCase();
 		
-		List<RObject> list = currentRoom.getObjectList();
-		
-		Iterator<RObject> it = list.iterator();
-		while( it.hasNext() )
-		{
-			RObject obj = it.next();
-			if ( obj.id.equals(id) ) return obj;
-		}
-		
-		return null;
+		RObject obj = currentRoom.getObject( id);
+		if ( obj != null ) stepLOD.wake( obj);
+		return obj;
 	}
 	
 	public Actor getActor( String id)
@@ -319,8 +428,9 @@ public class FieldModule extends Module {
 		if ( id.equals("nepeta") ) return player;
 		
 		Map<String,Actor> map = currentRoom.getActorMap();
-		if ( map.containsKey( id) ) return map.get( id);
-		else return null;
+		Actor actor = map.get( id);
+		if ( actor instanceof RObject ) stepLOD.wake( (RObject)actor);
+		return actor;
 	}
 	
 	/*
@@ -0,0 +1,164 @@
+package quest.field;
+
+import java.util.Arrays;
+
+/*
+ * A flow field over a Walkmap's tiles, pointing towards one target tile.
+ *
+ * Each tile stores its walking distance to the target: solid tiles can't
+ * be crossed, and the half-solid slope tiles cost four times as much as open
+ * ones, so paths only cut through them when it's worth it. Anything
+ * standing on a reachable tile can then find its way to the target by
+ * repeatedly heading for the neighbouring tile with the lowest distance.
+ * Collision rects (NPCs, doodads) are ignored; they move, and moveAgainst
+ * slides round them anyway.
+ *
+ * The distances are only worked out again when the target moves to another
+ * tile, or when the Walkmap's tiles change, so any number of enemies can
+ * share one field for the cost of one search per change.
+ */
+
+public class FlowField {
+	
+	public static final int UNREACHABLE = Integer.MAX_VALUE;
+	
+	private static final int OPEN_COST = 1, SLOPE_COST = 4;
+	private static final int[] DX = { 0, 1, 0, -1 }, DY = { -1, 0, 1, 0 };
+	
+	private Walkmap walkmap;
+	private int w, h;
+	private int[] dist;
+	private int[] cost;		//per tile, 0 if solid; rebuilt when the Walkmap's revision changes
+	private int targetX = -1, targetY = -1;
+	private int revision = -1;
+	
+	//search workspace: a bucket queue, one bucket per pending distance
+	private int[][] buckets = new int[SLOPE_COST+1][];
+	private int[] bucketSize = new int[SLOPE_COST+1];
+	
+	FlowField( Walkmap walkmap)
+	{
+		this.walkmap = walkmap;
+		w = walkmap.getWidth();
+		h = walkmap.getHeight();
+		dist = new int[w*h];
+		cost = new int[w*h];
+		
+		for( int b=0; b<buckets.length; b++) buckets[b] = new int[64];
+	}
+	
+	/*
+	 * Points the field at a tile, recomputing it if the tile (or the
+	 * Walkmap) has changed since last time.
+	 */
+	
+	public void setTarget( int tx, int ty)
+	{
+		tx = Math.max( 0, Math.min( w-1, tx));
+		ty = Math.max( 0, Math.min( h-1, ty));
+		
+		if ( tx == targetX && ty == targetY && revision == walkmap.getRevision() ) return;
+		
+		if ( revision != walkmap.getRevision() )
+		{
+			revision = walkmap.getRevision();
+			for( int y=0; y<h; y++)
+			for( int x=0; x<w; x++)
+			{
+				int type = walkmap.getTile( x, y);
+				cost[x+y*w] = ( type == 1 ) ? 0 : ( type > 1 && type <= 5 ) ? SLOPE_COST : OPEN_COST;
+			}
+		}
+		
+		targetX = tx;
+		targetY = ty;
+		search();
+	}
+	
+	public void setTargetPixel( int px, int py)
+	{
+		setTarget( Math.floorDiv( px, Room.TILEW), Math.floorDiv( py, Room.TILEH));
+	}
+	
+	/*
+	 * Returns the direction (Actor.NORTH etc) in which to leave the given
+	 * tile, or -1 if it's the target tile or can't reach it.
+	 */
+	
+	public int directionFrom( int tx, int ty)
+	{
+		if ( tx < 0 || tx >= w || ty < 0 || ty >= h ) return -1;
+		
+		int best = dist[tx+ty*w], bestDir = -1;
+		if ( best == UNREACHABLE ) return -1;
+		
+		for( int d=0; d<4; d++)
+		{
+			int nx = tx+DX[d], ny = ty+DY[d];
+			if ( nx < 0 || nx >= w || ny < 0 || ny >= h ) continue;
+			if ( dist[nx+ny*w] < best ) { best = dist[nx+ny*w]; bestDir = d; }
+		}
+		
+		return bestDir;
+	}
+	
+	public int getDistance( int tx, int ty)
+	{
+		if ( tx < 0 || tx >= w || ty < 0 || ty >= h ) return UNREACHABLE;
+		return dist[tx+ty*w];
+	}
+	
+	/*
+	 * Dijkstra's algorithm, with a queue of SLOPE_COST+1 buckets used
+	 * in rotation; every pending tile's distance is within SLOPE_COST of
+	 * the one being expanded, so that's all the queue ever needs.
+	 */
+	
+	private void search()
+	{
+		Arrays.fill( dist, UNREACHABLE);
+		Arrays.fill( bucketSize, 0);
+		
+		dist[targetX+targetY*w] = 0;
+		push( 0, targetX+targetY*w);
+		int pending = 1;
+		
+		for( int d=0; pending > 0; d++)
+		{
+			int b = d % buckets.length;
+			for( int i=0; i<bucketSize[b]; i++)
+			{
+				int tile = buckets[b][i];
+				if ( dist[tile] != d ) continue;
+				
+				int tx = tile%w, ty = tile/w;
+				for( int k=0; k<4; k++)
+				{
+					int nx = tx+DX[k], ny = ty+DY[k];
+					if ( nx < 0 || nx >= w || ny < 0 || ny >= h ) continue;
+					
+					int n = nx+ny*w;
+					if ( cost[n] == 0 ) continue;
+					
+					int nd = d + cost[n];
+					if ( nd >= dist[n] ) continue;
+					
+					dist[n] = nd;
+					push( nd % buckets.length, n);
+					pending++;
+				}
+			}
+			
+			pending -= bucketSize[b];
+			bucketSize[b] = 0;
+		}
+	}
+	
+	private void push( int b, int tile)
+	{
+		if ( bucketSize[b] == buckets[b].length )
+			buckets[b] = Arrays.copyOf( buckets[b], bucketSize[b]*2);
+		
+		buckets[b][bucketSize[b]++] = tile;
+	}
+}
@@ -0,0 +1,149 @@
+package quest.field;
+
+import java.io.*;
+import java.nio.*;
+
+/*
+ * A read cursor over an NQR file which is held in a single ByteBuffer.
+ * Room and the room objects parse their records through one of these.
+ *
+ * Every read is checked against the end of the buffer. A read that would
+ * run past the end throws an IOException rather than returning -1 or
+ * garbage, so RObject.createFrom() can tell that a record is malformed
+ * and skip it.
+ *
+ * Reads are big-endian, as DataInputStream's were: read() returns an
+ * unsigned byte and readShort() a signed short.
+ */
+
+class NQRCursor {
+	
+	private ByteBuffer buf;
+	
+	NQRCursor( ByteBuffer buf)
+	{
+		this.buf = buf.duplicate();
+		this.buf.order( ByteOrder.BIG_ENDIAN);
+	}
+	
+	int read() throws IOException
+	{
+		need(1);
+		return buf.get() & 0xff;
+	}
+	
+	int readShort() throws IOException
+	{
+		need(2);
+		return buf.getShort();
+	}
+	
+	int readUnsignedShort() throws IOException
+	{
+		return readShort() & 0xffff;
+	}
+	
+	int readInt() throws IOException
+	{
+		need(4);
+		return buf.getInt();
+	}
+	
+	boolean readBoolean() throws IOException
+	{
+		return read() != 0;
+	}
+	
+	void readFully( byte[] b) throws IOException
+	{
+		need( b.length);
+		buf.get( b);
+	}
+	
+	/*
+	 * Reads a string with the format "two bytes indicating
+	 * length, followed by the string data".
+	 */
+	
+	String readPascalString() throws IOException
+	{
+		int len = readShort();
+		if ( len < 0 ) throw new IOException( "negative string length at " + (buf.position()-2));
+		
+		byte[] b = new byte[len];
+		readFully( b);
+		return new String( b);
+	}
+	
+	/*
+	 * Reads len bytes of run-length encoded data, which have to decode to
+	 * exactly size bytes. Each run starts with a count byte n: if it's 0 to
+	 * 127, n+1 bytes follow to be copied as they are; if it's -1 to -127,
+	 * one byte follows, which is repeated 1-n times.
+	 */
+	
+	byte[] readRunLength( int len, int size) throws IOException
+	{
+		if ( len < 0 || len > buf.remaining() ) throw new EOFException( "run-length data at " + buf.position() + " runs past the end");
+		
+		//copy the encoded bytes out in one go, rather than a get() per run
+		byte[] src = new byte[len];
+		buf.get( src);
+		
+		byte[] b = new byte[size];
+		int i = 0, n = 0;
+		while( i < len )
+		{
+			int count = src[i++];
+			if ( count >= 0 )
+			{
+				count++;
+				if ( n+count > size || i+count > len ) break;
+				for( int k=0; k<count; k++) b[n+k] = src[i+k];
+				i += count;
+			}
+			else
+			{
+				count = 1-count;
+				if ( n+count > size || i >= len ) break;
+				byte value = src[i++];
+				for( int k=0; k<count; k++) b[n+k] = value;
+			}
+			n += count;
+		}
+		
+		if ( n != size || i != len )
+			throw new IOException( "run-length data at " + (buf.position()-len) + " isn't " + size + " bytes");
+		
+		return b;
+	}
+	
+	int position()
+	{
+		return buf.position();
+	}
+	
+	int remaining()
+	{
+		return buf.remaining();
+	}
+	
+	/*
+	 * Moves the cursor to the given position, which has to be
+	 * within the file.
+	 */
+	
+	void seek( int position) throws IOException
+	{
+		if ( position < 0 || position > buf.limit() )
+			throw new EOFException( "seek to " + position + " in a file of " + buf.limit() + " bytes");
+		
+		buf.position( position);
+	}
+	
+	private void need( int n) throws IOException
+	{
+		if ( buf.remaining() < n )
+			throw new EOFException( "read of " + n + " bytes at " + buf.position() + " in a file of " + buf.limit() + " bytes");
+	}
+}
@@ -0,0 +1,191 @@
+package quest.field;
+
+import java.util.*;
+
+/*
+ * A spatial index of a Room's objects, used by FieldModule to find
+ * which objects the player might be touching or talking to.
+ *
+ * Like the Walkmap's rect grid, there's one cell per tile, and each cell
+ * lists the objects whose interaction area (their bounds, grown by a pixel
+ * on every side; see RObject.isInteractable) overlaps it. Objects hanging
+ * off the edge of the room are listed in the nearest edge cells, and so
+ * are queries. Actors call Room.objectMoved() whenever they change
+ * position, which keeps their cells up to date.
+ *
+ * Objects are identified by their slot, which is simply their index in
+ * the Room's object list. gather() always returns slots in that order, so
+ * events are delivered in the same order as walking the whole list would.
+ */
+
+public class ObjectGrid {
+	
+	private RObject[] objects;
+	private int w, h;
+	
+	//the cells each object is currently listed in
+	private int[] cx1, cy1, cx2, cy2;
+	
+	private int[][] cellObjects;
+	private int[] cellCount;
+	
+	//objects which have to be visited every step, regardless of position
+	private int[] stepped;
+	
+	//query results
+	private int[] visited;
+	private int[] objectStamp;
+	private int stamp = 0;
+	
+	ObjectGrid( int width, int height, List<RObject> list)
+	{
+		w = Math.max( 1, width);
+		h = Math.max( 1, height);
+		objects = list.toArray( new RObject[list.size()]);
+		
+		int n = objects.length;
+		cx1 = new int[n]; cy1 = new int[n]; cx2 = new int[n]; cy2 = new int[n];
+		cellObjects = new int[w*h][];
+		cellCount = new int[w*h];
+		visited = new int[n];
+		objectStamp = new int[n];
+		
+		int steppedCount = 0;
+		stepped = new int[n];
+		
+		for( int slot=0; slot<n; slot++)
+		{
+			RObject obj = objects[slot];
+			if ( obj == null ) continue;
+			
+			obj.gridSlot = slot;
+			findCells( slot);
+			gridInsert( slot);
+			
+			if ( obj.isStepped() ) stepped[steppedCount++] = slot;
+		}
+		
+		stepped = Arrays.copyOf( stepped, steppedCount);
+	}
+	
+	/*
+	 * Re-files an object after it's moved.
+	 */
+	
+	public void update( RObject obj)
+	{
+		int slot = obj.gridSlot;
+		if ( slot < 0 || slot >= objects.length || objects[slot] != obj ) return;
+		
+		int ox1 = cx1[slot], oy1 = cy1[slot], ox2 = cx2[slot], oy2 = cy2[slot];
+		findCells( slot);
+		
+		if ( ox1 == cx1[slot] && oy1 == cy1[slot] && ox2 == cx2[slot] && oy2 == cy2[slot] ) return;
+		
+		gridRemove( slot, ox1, oy1, ox2, oy2);
+		gridInsert( slot);
+	}
+	
+	/*
+	 * Collects every stepped object, plus every object listed in the cells
+	 * which the given rectangle covers, in slot order. Returns the number
+	 * collected; fetch them with getVisited().
+	 *
+	 * Only stepped objects move during FieldModule's object loop, and they're
+	 * always collected, so the rest can't wander into range after the query.
+	 */
+	
+	public int gather( int x, int y, int width, int height)
+	{
+		stamp++;
+		int n = 0;
+		
+		int qx2 = cellX(x+Math.max(width,1)-1), qy2 = cellY(y+Math.max(height,1)-1);
+		for( int cy=cellY(y); cy<=qy2; cy++)
+		for( int cx=cellX(x); cx<=qx2; cx++)
+		{
+			int cell = cx + cy*w;
+			for( int i=0; i<cellCount[cell]; i++)
+			{
+				int slot = cellObjects[cell][i];
+				if ( objectStamp[slot] == stamp ) continue;
+				
+				objectStamp[slot] = stamp;
+				visited[n++] = slot;
+			}
+		}
+		
+		for( int i=0; i<stepped.length; i++)
+		{
+			int slot = stepped[i];
+			if ( objectStamp[slot] == stamp ) continue;
+			
+			objectStamp[slot] = stamp;
+			visited[n++] = slot;
+		}
+		
+		Arrays.sort( visited, 0, n);
+		return n;
+	}
+	
+	public RObject getVisited( int i) { return objects[visited[i]]; }
+	
+	/*
+	 * Grid maintenance.
+	 */
+	
+	private void findCells( int slot)
+	{
+		RObject obj = objects[slot];
+		int r = obj.getReach() + 1;
+		int x = obj.x - (obj.w/2 + r), y = obj.y - (obj.h/2 + r);
+		int width = Math.max( 1, obj.w + 2*r), height = Math.max( 1, obj.h + 2*r);
+		
+		cx1[slot] = cellX(x);
+		cy1[slot] = cellY(y);
+		cx2[slot] = cellX(x+width-1);
+		cy2[slot] = cellY(y+height-1);
+	}
+	
+	private void gridInsert( int slot)
+	{
+		for( int cy=cy1[slot]; cy<=cy2[slot]; cy++)
+		for( int cx=cx1[slot]; cx<=cx2[slot]; cx++)
+		{
+			int cell = cx + cy*w;
+			if ( cellObjects[cell] == null ) cellObjects[cell] = new int[4];
+			if ( cellCount[cell] == cellObjects[cell].length )
+				cellObjects[cell] = Arrays.copyOf( cellObjects[cell], cellCount[cell]*2);
+			
+			cellObjects[cell][cellCount[cell]++] = slot;
+		}
+	}
+	
+	private void gridRemove( int slot, int x1, int y1, int x2, int y2)
+	{
+		for( int cy=y1; cy<=y2; cy++)
+		for( int cx=x1; cx<=x2; cx++)
+		{
+			int cell = cx + cy*w;
+			int[] list = cellObjects[cell];
+			for( int i=0; i<cellCount[cell]; i++)
+			{
+				if ( list[i] != slot ) continue;
+				list[i] = list[--cellCount[cell]];
+				break;
+			}
+		}
+	}
+	
+	private int cellX( int px)
+	{
+		int cx = Math.floorDiv( px, Room.TILEW);
+		return ( cx < 0 ) ? 0 : ( cx >= w ) ? w-1 : cx;
+	}
+	
+	private int cellY( int py)
+	{
+		int cy = Math.floorDiv( py, Room.TILEH);
+		return ( cy < 0 ) ? 0 : ( cy >= h ) ? h-1 : cy;
+	}
+}
@@ -0,0 +1,141 @@
+package quest.field;
+
+import java.util.Arrays;
+import java.util.concurrent.*;
+
+/*
+ * Optional parallel stepping, for rooms with a lot of wandering NPCs.
+ *
+ * Every roaming NPC (and idle enemy) starts its step with a call to
+ * Walkmap.moveAgainst(), which is the expensive part of stepping it. At the
+ * start of FieldModule's object loop, plan() works all of those moves out
+ * at once across a ForkJoinPool, against the room as it stands before
+ * anything has moved; nothing changes the Walkmap while that's going on.
+ *
+ * The object loop then runs exactly as it otherwise would, on the game
+ * thread and in the usual order. When an NPC makes the move that was
+ * planned for it, it takes the precomputed answer, unless some collision
+ * rect has since moved close enough to have made a difference (the Walkmap
+ * keeps a log of them for the duration), in which case the move is worked
+ * out again there and then. Either way, the answer is the one the NPC
+ * would have got without any planning, so stepping in parallel gives the
+ * same results as not, and a recorded session replays the same either way.
+ *
+ * Switched on with configure(), from Game's -parallel option.
+ */
+
+public class ParallelStepper {
+	
+	//below this many planned moves, handing them out costs more than it saves
+	public static final int MIN_MOVES = 16;
+	private static final int CHUNK = 8;
+	
+	private static ForkJoinPool pool = null;
+	
+	private static final ThreadLocal<Walkmap.Probe> probes = new ThreadLocal<Walkmap.Probe>() {
+		protected Walkmap.Probe initialValue() { return new Walkmap.Probe(); }
+	};
+	
+	private RNPC[] movers = new RNPC[64];
+	private int moverCount = 0;
+	private Walkmap walkmap = null;
+	
+	/*
+	 * Sets the number of worker threads. 0 switches parallel stepping off.
+	 */
+	
+	public static void configure( int threads)
+	{
+		if ( pool != null ) pool.shutdown();
+		pool = ( threads > 0 ) ? new ForkJoinPool( threads) : null;
+	}
+	
+	public static boolean isEnabled()
+	{
+		return pool != null;
+	}
+	
+	/*
+	 * Phase one. ticks[i] is the number of ticks the i'th object gathered
+	 * from the ObjectGrid is about to be stepped by.
+	 */
+	
+	void plan( Walkmap walkmap, ObjectGrid grid, int count, int[] ticks)
+	{
+		if ( pool == null ) return;
+		
+		moverCount = 0;
+		for( int i=0; i<count; i++)
+		{
+			RObject obj = grid.getVisited(i);
+			if ( ticks[i] <= 0 || !(obj instanceof RNPC) ) continue;
+			
+			RNPC npc = (RNPC)obj;
+			if ( !npc.planMove( ticks[i]) ) continue;
+			
+			if ( moverCount == movers.length )
+				movers = Arrays.copyOf( movers, moverCount*2);
+			movers[moverCount++] = npc;
+		}
+		
+		if ( moverCount < MIN_MOVES )
+		{
+			moverCount = 0;
+			return;
+		}
+		
+		this.walkmap = walkmap;
+		pool.invoke( new Plan( 0, moverCount));
+		walkmap.beginChangeLog();
+	}
+	
+	/*
+	 * Phase two is the object loop itself. Afterwards, any plans which
+	 * weren't used (eg because the player stopped an NPC to talk) are
+	 * thrown away.
+	 */
+	
+	void finish()
+	{
+		for( int i=0; i<moverCount; i++)
+		{
+			movers[i].plannedDest = null;
+			movers[i] = null;
+		}
+		moverCount = 0;
+		
+		if ( walkmap != null ) walkmap.endChangeLog();
+		walkmap = null;
+	}
+	
+	private class Plan extends RecursiveAction {
+		
+		private static final long serialVersionUID = -8292698140106070569L;
+		
+		private int from, to;
+		
+		Plan( int from, int to)
+		{
+			this.from = from;
+			this.to = to;
+		}
+		
+		protected void compute()
+		{
+			if ( to-from > CHUNK )
+			{
+				int mid = (from+to) >>> 1;
+				invokeAll( new Plan( from, mid), new Plan( mid, to));
+				return;
+			}
+			
+			Walkmap.Probe probe = probes.get();
+			for( int i=from; i<to; i++)
+			{
+				RNPC npc = movers[i];
+				npc.plannedDest = walkmap.moveAgainst( npc.plannedX, npc.plannedY, npc.w, npc.h,
+													   npc.plannedXvel, npc.plannedYvel, npc.collHandle, probe);
+			}
+		}
+	}
+}
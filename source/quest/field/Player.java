@@ -16,7 +16,7 @@ public class Player implements Actor {
 	public int w = 18, h = 12;
 	
 	public int dir;
-	boolean movedThisStep = false;
+	boolean movedThisStep = false, walking = false;
 	
 	Sprite walksprite;
 	Sprite walksprite_move;
@@ -25,18 +25,17 @@ public class Player implements Actor {
 	
 	int collHandle = -1;
 	
-	Player( int x, int y, int dir)
+	Player( int x, int y, int dir, SpriteBank bank)
 	{
 		this.x = x;
 		this.y = y;
 		this.dir = dir;
 		
-		walksprite = new Sprite( Game.SPRITEPATH+"walksprites/nepeta.png");
-		walksprite_move = new Sprite( Game.SPRITEPATH+"walksprites/animations/nepeta_move.png");
-		spritew = walksprite.getRawWidth()/4;
-		spriteh = walksprite.getRawHeight();
-		walksprite.sliceFrames( spritew, spriteh, 0, 0, 4, 20);
-		walksprite_move.sliceFrames( spritew, spriteh, 0, 0, 4, 20);
+		Sprite sheet = bank.loadSprite( Game.SPRITEPATH+"walksprites/nepeta.png");
+		spritew = sheet.getRawWidth()/4;
+		spriteh = sheet.getRawHeight();
+		walksprite = bank.loadSprite( Game.SPRITEPATH+"walksprites/nepeta.png", spritew, spriteh, 0, 0, 4, 20);
+		walksprite_move = bank.loadSprite( Game.SPRITEPATH+"walksprites/animations/nepeta_move.png", spritew, spriteh, 0, 0, 4, 20);
 	}
 	
 	public void init( Room room)
@@ -91,14 +90,22 @@ public class Player implements Actor {
 
 	}
 	
-	public void draw( DrawOp op)
+	/*
+	 * Called once a tick, after the player has moved, to advance the
+	 * walk cycle. draw() only reads it.
+	 */
+	
+	void onAnimate()
 	{
 		frame = (frame+1)%20;
-		
-		if ( !movedThisStep ) op.drawSprite( walksprite, x-12, y-30, -(y+3), dir);
-		else op.drawTile( walksprite_move, x-12, y-30, -(y+3), (frame/5), dir);
-		
+		walking = movedThisStep;
 		movedThisStep = false;
 	}
 	
+	public void draw( DrawOp op)
+	{
+		if ( !walking ) op.drawSprite( walksprite, x-12, y-30, -(y+3), dir);
+		else op.drawTile( walksprite_move, x-12, y-30, -(y+3), (frame/5), dir);
+	}
+	
 }
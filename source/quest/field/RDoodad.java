@@ -13,7 +13,7 @@ import java.io.*;
 public class RDoodad extends RObject {
 
 	private Sprite sprite;
-	private String script;
+	String script;
 	private int offx, offy;			//drawing offset
 	private int framecount, delay; 	//animation variables
 	private boolean overlay;
@@ -27,41 +27,34 @@ public class RDoodad extends RObject {
 	 * record, with a three-byte inset.
 	 */
 	
-	RDoodad( InputStream istream, Room room)
+	RDoodad( NQRCursor in, Room room) throws IOException
 	{
 		type = 'D';
 		
-		String spritepath = null;
+		//header
+		readHeader( in);
 		
-		try {
-			
-			DataInputStream stream = new DataInputStream(istream);
-			
-			//header
-			readHeader( stream);
-			
-			//sprite filename
-			spritepath = readPascalString( stream);
-			
-			//data body
-			w = stream.read();
-			h = stream.read();
-			offx = stream.read();
-			offy = stream.read();
-			framecount = stream.read();
-			delay = stream.read();
-			overlay = (stream.read() != 0);
-			
-			//field script
-			script = readPascalString( stream);
-			
-		} catch ( IOException exIO ) { return; }
+		//sprite filename
+		String spritepath = in.readPascalString();
 		
-		//load and slice the given sprite
+		//data body
+		w = in.read();
+		h = in.read();
+		offx = in.read();
+		offy = in.read();
+		framecount = in.read();
+		delay = in.read();
+		overlay = (in.read() != 0);
+		
+		//field script
+		script = in.readPascalString();
+		
+		//load the given sprite, sliced into framecount frames
 		SpriteBank bank = room.getSpriteBank();
-		sprite = bank.loadSprite( Game.SPRITEPATH + "doodads/" + spritepath);
+		String path = Game.SPRITEPATH + "doodads/" + spritepath;
+		Sprite sheet = bank.loadSprite( path);
 		if ( framecount == 0 ) framecount = 1;
-		sprite.sliceFrames( sprite.getRawWidth()/framecount, sprite.getHeight(), 0, 0, framecount, framecount);
+		sprite = bank.loadSprite( path, sheet.getRawWidth()/framecount, sheet.getRawHeight(), 0, 0, framecount, framecount);
 	
 		//register collision rectangle
 		walkmap = room.getWalkmap();
@@ -86,15 +79,24 @@ public class RDoodad extends RObject {
 	}
 	
 	/*
-	 * Drawing event. Animate the doodad. Draw the doodad's sprite.
+	 * Animation event. Animate the doodad.
 	 */
 	
-	public void onDraw( DrawOp op)
+	public void onAnimate()
 	{
+		if ( framecount <= 1 ) return;
+		
 		frametick++;
 		if ( frametick % delay == 0 ) frame++;
 		frame = frame%framecount;
-		
+	}
+	
+	/*
+	 * Drawing event. Draw the doodad's sprite.
+	 */
+	
+	public void onDraw( DrawOp op)
+	{
 		if ( !overlay )
 			op.drawSprite( sprite, x-offx, y-offy, -(y+h/2), frame);
 		else
@@ -109,6 +111,11 @@ public class RDoodad extends RObject {
 	{
 	}
 	
+	public boolean isStepped()
+	{
+		return false;
+	}
+	
 	/*
 	 * Destruction event.
 	 */
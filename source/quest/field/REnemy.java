@@ -1,6 +1,5 @@
 package quest.field;
 
-import java.awt.Rectangle;
 import java.io.*;
 
 import quest.*;
@@ -33,6 +32,7 @@ public class REnemy extends RNPC {
 	//variables used internally
 	Player player;
 	int lastDirChange = -1;
+	int detour = 0;
 	int timeSpentInCurrentState = 1000;
 	
 	//configuration variables loaded from .NQR file
@@ -42,9 +42,11 @@ public class REnemy extends RNPC {
 	private boolean aggressive = true;
 	private boolean sleeping = true;
 	
-	//shared graphics resources
-	private static Sprite shadowSprite = null;
-	private static Sprite alertSprite = null;
+	private static final int DETOUR_TICKS = 20;
+	
+	//graphics resources, shared through the SpriteCache
+	private Sprite shadowSprite;
+	private Sprite alertSprite;
 	
 	/*
 	 * Important RNPC variables include:
@@ -52,9 +54,9 @@ public class REnemy extends RNPC {
 	 * 	Map<String,Sprite> animsprites; (auto-loaded animations)
 	 */
 	
-	REnemy( InputStream istream, Room room)
+	REnemy( NQRCursor in, Room room) throws IOException
 	{
-		super( istream, room);
+		super( in, room);
 		
 		//translate certain RNPC variables into REnemy variables
 		walkAnimSpeed = 3;
@@ -66,20 +68,18 @@ public class REnemy extends RNPC {
 		roaming = true;
 		script = "";
 		
-		//load variables from NQR file
+		//load variables from NQR file, giving back the collision
+		//rectangle RNPC registered if they aren't there
 		try {
 			
-			DataInputStream stream = new DataInputStream(istream);
-			
-			sleeping = (stream.read() != 0);
-			alertDistance = stream.readShort();
+			sleeping = (in.read() != 0);
+			alertDistance = in.readShort();
 			
-		} catch ( IOException ioe ) { return; }
-		
+		} catch ( IOException ioe ) { onDestroy(); throw ioe; }
 		
-		player = FieldModule.get().getPlayer();
-		if ( alertSprite == null ) alertSprite = new Sprite( Game.SPRITEPATH+"enemy_alert.png");
-		if ( shadowSprite == null ) shadowSprite = new Sprite( Game.SPRITEPATH+"enemy_shadow.png");
+		if ( FieldModule.get() != null ) player = FieldModule.get().getPlayer();
+		alertSprite = room.getSpriteBank().loadSprite( Game.SPRITEPATH+"enemy_alert.png");
+		shadowSprite = room.getSpriteBank().loadSprite( Game.SPRITEPATH+"enemy_shadow.png");
 	}
 	
 	/*
@@ -100,6 +100,38 @@ public class REnemy extends RNPC {
 		timeSpentInCurrentState++;
 	}
 	
+	/*
+	 * Several ticks at once, for an enemy away from the viewport. Only
+	 * idling is approximated; an enemy doing anything else is stepped
+	 * tick by tick.
+	 */
+	
+	public void onStep( int ticks)
+	{
+		if ( state != State.IDLE )
+		{
+			for( int i=0; i<ticks; i++) onStep();
+			return;
+		}
+		
+		if ( sleeping == false ) roam( ticks);
+		
+		if ( distanceTo(player.x,player.y) < alertDistance && 
+			 aggressive == true && timeSpentInCurrentState > 60 ) 
+		{
+			timeSpentInCurrentState = 0;
+			state = State.NOTICING;
+		}
+		
+		timeSpentInCurrentState += ticks;
+	}
+	
+	int plannedDistance( int ticks)
+	{
+		//only an idle enemy moves like an NPC
+		return ( state == State.IDLE && !sleeping ) ? super.plannedDistance( ticks) : 0;
+	}
+	
 	private void stepIdle()
 	{
 		if ( sleeping == false ) super.onStep();
@@ -125,7 +157,9 @@ public class REnemy extends RNPC {
 	
 	private void stepChasing()
 	{
-		moveTowards( player.x, player.y, chaseSpeed);
+		FlowField field = room.getChaseField();
+		field.setTargetPixel( player.x, player.y);
+		moveAlong( field, player.x, player.y, chaseSpeed);
 		
 		if ( distanceTo(startx,starty) > chaseDistance 
 			&& distanceTo(player.x,player.y) > 72 )
@@ -137,7 +171,7 @@ public class REnemy extends RNPC {
 	
 	private void stepReturning()
 	{
-		moveTowards( startx, starty, chaseSpeed);
+		moveAlong( room.getHomeField( startx, starty), startx, starty, chaseSpeed);
 		
 		if ( distanceTo(startx,starty) < 12 ) 
 		{
@@ -158,9 +192,46 @@ public class REnemy extends RNPC {
 	 * Utility functions.
 	 */
 	
+	private void moveAlong( FlowField field, int destx, int desty, int speed)
+	{
+		// Used by CHASING and RETURNING enemies, with a FlowField which
+		// leads to (destx,desty)
+		
+		//on the destination's own tile, or anywhere the field doesn't
+		//reach, just head straight for it. likewise for a while after
+		//getting stuck on something the field doesn't know about, such
+		//as a doodad.
+		int tx = Math.floorDiv( x, Room.TILEW), ty = Math.floorDiv( y, Room.TILEH);
+		int fdir = field.directionFrom( tx, ty);
+		if ( fdir == -1 || detour > 0 ) 
+		{
+			if ( detour > 0 ) detour--;
+			moveTowards( destx, desty, speed);
+			return;
+		}
+		
+		//otherwise follow the field out of this tile. first, though, get
+		//lined up with the middle of the tile closely enough to fit through
+		//a one-tile gap, so as not to catch on corners.
+		boolean vertical = ( fdir == NORTH || fdir == SOUTH );
+		int off = vertical ? (tx*Room.TILEW + Room.TILEW/2) - x : (ty*Room.TILEH + Room.TILEH/2) - y;
+		int slack = vertical ? Math.max( 0, (Room.TILEW-w)/2) : Math.max( 0, (Room.TILEH-h)/2);
+		
+		int curx = x, cury = y;
+		if ( Math.abs(off) > slack )
+		{
+			int side = vertical ? (off > 0 ? EAST : WEST) : (off > 0 ? SOUTH : NORTH);
+			move( side, Math.min( speed, Math.abs(off)-slack));
+		}
+		else move( fdir, speed);
+		
+		dir = fdir;
+		if ( curx == x && cury == y ) detour = DETOUR_TICKS;
+	}
+	
 	private void moveTowards( int destx, int desty, int speed)
 	{
-		// Used by CHASING and RETURNING enemies
+		// Used by moveAlong(), when there's no path to follow
 		
 		//find direction to face towards destination
 		int ndir = directionTo(destx,desty);
@@ -171,7 +242,7 @@ public class REnemy extends RNPC {
 			if ( ndir != dir && lastDirChange < 0 )
 			{ 
 				dir = ndir; 
-				lastDirChange = 10 + (int)(Math.random()*15.0); 
+				lastDirChange = 10 + (int)(room.getRandom().nextDouble()*15.0); 
 			}
 		}
 		lastDirChange--;
@@ -202,7 +273,7 @@ public class REnemy extends RNPC {
 				if ( desty < y ) dir = NORTH;
 				else dir = SOUTH;
 			}
-			lastDirChange = 10 + (int)(Math.random()*15.0);
+			lastDirChange = 10 + (int)(room.getRandom().nextDouble()*15.0);
 			
 			move( dir, 2);
 		}
@@ -231,9 +302,9 @@ public class REnemy extends RNPC {
 	 * Remaining RObject functions.
 	 */
 	
-	public Rectangle getBounds()
+	public int getReach()
 	{
-		return new Rectangle( x-((w/2)+3), y-((h/2)+3), w+6, h+6);
+		return 3;
 	}
 	
 	public void onContact()
@@ -1,5 +1,6 @@
 package quest.field;
 
+import quest.*;
 import java.io.*;
 
 /*
@@ -18,31 +19,25 @@ public class RGate extends RObject {
 	 * record, with a three-byte inset.
 	 */
 	
-	RGate( InputStream istream, Room room)
+	RGate( NQRCursor in, Room room) throws IOException
 	{
 		type= 'G';
 		
-		try {
-			
-			DataInputStream stream = new DataInputStream(istream);
-			
-			//header
-			readHeader( stream);
-			
-			//destination room and location
-			destroom = readPascalString( stream);
-			destX = stream.readShort();
-			destY = stream.readShort();
-			
-			//size
-			w = stream.readShort();
-			h = stream.readShort();
-			x += w/2; y += h/2;
-			
-			//direction of movement
-			movemode = stream.read();
+		//header
+		readHeader( in);
 		
-		} catch ( IOException exIO ) { return; }
+		//destination room and location
+		destroom = in.readPascalString();
+		destX = in.readShort();
+		destY = in.readShort();
+		
+		//size
+		w = in.readShort();
+		h = in.readShort();
+		x += w/2; y += h/2;
+		
+		//direction of movement
+		movemode = in.read();
 	}
 	
 	/*
@@ -57,11 +52,22 @@ public class RGate extends RObject {
 		module.switchToRoom( destroom, movemode+1, destX, destY);
 	}
 	
+	/*
+	 * The full path of the room this gate leads to, as passed to
+	 * the Room constructor.
+	 */
+	
+	public String getDestination()
+	{
+		return Game.DATAPATH + destroom;
+	}
+	
 	/*
 	 * Null events.
 	 */
 	
 	public void onStep() {}
+	public boolean isStepped() { return false; }
 	public void onInteract() {}
 	public void onDraw(DrawOp op) {}
 	public void onDestroy() {}
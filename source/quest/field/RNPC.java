@@ -14,14 +14,15 @@ import quest.*;
  * and draw themselves.
  * 
  * Secondly, they implement Actor, such that they can be controlled by
- * FieldScripts. Animations are the most complicated part of this; they're loaded
- * by traversing the sprites/walksprites/animations directory, and then
+ * FieldScripts. Animations are the most complicated part of this; they're found
+ * in the sprites/walksprites/animations directory (through AnimationIndex), and
  * indexed using a name derived from their filename (eg "nepeta_dance.png" -> "dance").
  * This allows FieldScripts to invoke animations by name, rather than using 
  * some kind of restrictive indexing system.
  * 
  * Thirdly, they can move around autonomously. Objects derived from
- * RNPC (such as REnemy) can abandon this functionality by overriding onStep().
+ * RNPC (such as REnemy) can abandon this functionality by overriding onStep(),
+ * and onStep(int), which StepLOD uses for NPCs away from the viewport.
  * IMPORTANT NOTE: If you add any functionality to onStep() other than this
  * roaming behaviour, it must also be added to derived classes.
  */
@@ -46,7 +47,7 @@ public class RNPC extends RObject implements Actor {
 	int spritew, spriteh;
 	int originx, originy;
 	int frame = 0;
-	boolean movedThisStep = false;
+	boolean movedThisStep = false, walking = false;
 	
 	//animations
 	HashMap<String,Sprite> animsprites = new HashMap<String,Sprite>(10);
@@ -59,64 +60,51 @@ public class RNPC extends RObject implements Actor {
 	Walkmap walkmap;
 	int collHandle = -1;
 	
+	//a move worked out ahead of time by ParallelStepper
+	Point plannedDest = null;
+	int plannedX, plannedY, plannedXvel, plannedYvel;
+	
 	/*
 	 * Constructor.
 	 */
 	
-	RNPC( InputStream istream, Room room)
+	RNPC( NQRCursor in, Room room) throws IOException
 	{
 		type = 'N';
 		
-		//load data from stream
-		try {
-			
-			DataInputStream stream = new DataInputStream(istream);
-			
-			//header
-			readHeader( stream);
-			
-			//sprite filename
-			spritepath = readPascalString( stream);
-			
-			//data body
-			w = stream.read();
-			h = stream.read();
-			originx = stream.read();
-			originy = stream.read();
-			dir = stream.read()-1; if ( dir < 0 ) dir = 0;
-			roaming = (stream.read() != 0);
-			roamDistance = stream.readShort();
-			roamSpeed = stream.read();
-			
-			//field script
-			script = readPascalString( stream);
-			
-		} catch ( IOException exIO ) { return; }
+		//header
+		readHeader( in);
+		
+		//sprite filename
+		spritepath = in.readPascalString();
+		
+		//data body
+		w = in.read();
+		h = in.read();
+		originx = in.read();
+		originy = in.read();
+		dir = in.read()-1; if ( dir < 0 ) dir = 0;
+		roaming = (in.read() != 0);
+		roamDistance = in.readShort();
+		roamSpeed = in.read();
+		
+		//field script
+		script = in.readPascalString();
 		
 		//load and slice the walksprite
 		SpriteBank bank = room.getSpriteBank();
-		walksprite = bank.loadSprite( Game.SPRITEPATH + "walksprites/" + spritepath);
-		spritew = walksprite.getRawWidth()/4;
-		spriteh = walksprite.getRawHeight();
-		walksprite.sliceFrames( spritew, spriteh, 0, 0, 4, 20);
+		String path = Game.SPRITEPATH + "walksprites/" + spritepath;
+		Sprite sheet = bank.loadSprite( path);
+		spritew = sheet.getRawWidth()/4;
+		spriteh = sheet.getRawHeight();
+		walksprite = bank.loadSprite( path, spritew, spriteh, 0, 0, 4, 20);
 		
-		//open the animation sprites directory
-		Directory sprdir = new Directory( Game.SPRITEPATH + "walksprites/animations");
-		java.util.List<String> files = sprdir.getFileList();
-		
-		//traverse it, loading any animations named after this NPC
-		ListIterator<String> it = files.listIterator();
-		while( it.hasNext() )
+		//load the animations named after this NPC
+		String npcname = spritepath.substring( 0, spritepath.length()-4);
+		for( Map.Entry<String,String> strip : AnimationIndex.getStrips( npcname).entrySet())
 		{
-			String file = it.next();
-			String npcname = spritepath.substring( 0, spritepath.length()-4);
-			if ( file.startsWith(npcname) )
-			{
-				String sub = file.substring( npcname.length()+1, file.length()-4);
-				Sprite sprite = bank.loadSprite(Game.SPRITEPATH+"walksprites/animations/"+file);
-				sprite.sliceFrames( spritew, spriteh, 0, 0, 100, 100);
-				animsprites.put( sub, sprite);
-			}
+			Sprite sprite = bank.loadSprite( strip.getValue(), spritew, spriteh, 0, 0, 100, 100);
+			animsprites.put( strip.getKey(), sprite);
 		}
 		
 		//register collision rectangle
@@ -136,20 +124,41 @@ public class RNPC extends RObject implements Actor {
 	 * RObject methods.
 	 */
 
-	public void onDraw(DrawOp op) 
+	public void onAnimate()
 	{
+		//a special animation ends once it's been shown past its last frame
+		if ( currentAnim != null && !currentAnim.isEmpty() )
+		{
+			Sprite spr = animsprites.get( currentAnim);
+			if ( spr.getRawWidth()/spr.getWidth() <= frame/animFramerate && frame%animFramerate == 0 )
+			{
+				frame = 0;
+				
+				if ( animRepeats > 0 ) animRepeats--;
+				else currentAnim = null;
+			}
+		}
+		
 		frame++;
 		
+		//whether the NPC moved this tick picks between the move and idle strips
+		walking = movedThisStep && animsprites.get("move") != null;
+		movedThisStep = false;
+		
+		if ( (currentAnim == null || currentAnim.isEmpty()) && !walking && animsprites.get("idle") == null ) frame = 0;
+	}
+	
+	public void onDraw(DrawOp op) 
+	{
 		int depth = -(y+spriteh-originy);
 		if ( originy > spriteh ) depth = -y;
 		
 		if ( currentAnim == null || currentAnim.isEmpty() )
 		{
-			if ( !movedThisStep || animsprites.get("move") == null ) 
+			if ( !walking ) 
 			{
 				if ( animsprites.get("idle") == null )
 				{
-					frame = 0;
 					op.drawSprite( walksprite, x-originx, y-originy, depth, dir);
 				}
 				else
@@ -165,21 +174,11 @@ public class RNPC extends RObject implements Actor {
 				op.drawTile( animsprites.get("move"), x-originx, y-originy, depth,
 							 (frame/walkAnimSpeed)%framesPerLine, dir);
 			}
-			
-			movedThisStep = false;
 		}
 		else
 		{
 			Sprite spr = animsprites.get( currentAnim);
 			op.drawSprite( spr, x-originx, y-originy, -(y+(walksprite.getHeight()-originy)), frame/animFramerate);
-			
-			if ( spr.getRawWidth()/spr.getWidth() <= frame/animFramerate && frame%animFramerate == 0 )
-			{
-				frame = 0;
-				
-				if ( animRepeats > 0 ) animRepeats--;
-				else currentAnim = null;
-			}
 		}
 	}
 
@@ -214,19 +213,31 @@ public class RNPC extends RObject implements Actor {
 	
 	public void onStep() 
 	{
-		//roaming behaviour
+		roam( 1);
+	}
+	
+	public void onStep( int ticks)
+	{
+		roam( ticks);
+	}
+	
+	void roam( int ticks)
+	{
+		//roaming behaviour. when several ticks are taken at once, the
+		//NPC covers the same ground, and each random event is as likely
+		//to have happened at least once.
 		if ( roaming )
 		{
-			timeout--;
+			timeout -= ticks;
 			
 			if ( isMoving ) 
 			{
-				move( dir, roamSpeed);
+				move( dir, roamSpeed*ticks);
 				
 				//randomly change direction
-				if ( Math.random() < 0.1 && timeout < 0 ) 
+				if ( room.getRandom().nextDouble() < chance( 0.1, ticks) && timeout < 0 ) 
 				{
-					dir = (int) Math.floor( Math.random()*4.0);
+					dir = (int) Math.floor( room.getRandom().nextDouble()*4.0);
 					timeout = 15;
 				}
 				
@@ -237,16 +248,44 @@ public class RNPC extends RObject implements Actor {
 				if ( y - starty < -roamDistance ) { face( Actor.SOUTH); timeout = 15; }
 				
 				//randomly stop
-				if ( Math.random() < 0.01 ) isMoving = false;
+				if ( room.getRandom().nextDouble() < chance( 0.01, ticks) ) isMoving = false;
 			}
 			else
 			{
 				//randomly start moving
-				if ( Math.random() < 0.02 ) isMoving = true;
+				if ( room.getRandom().nextDouble() < chance( 0.02, ticks) ) isMoving = true;
 			}
 		}
 	}
 	
+	/*
+	 * The distance which the next onStep() (or onStep(ticks)) will begin by
+	 * moving in the current direction, or 0 if it won't. planMove() notes
+	 * that move down for ParallelStepper to work out ahead of time.
+	 */
+	
+	int plannedDistance( int ticks)
+	{
+		return ( roaming && isMoving ) ? roamSpeed*ticks : 0;
+	}
+	
+	boolean planMove( int ticks)
+	{
+		int dist = plannedDistance( ticks);
+		if ( dist == 0 ) return false;
+		
+		plannedX = x;
+		plannedY = y;
+		plannedXvel = ( dir == EAST ) ? dist : ( dir == WEST ) ? -dist : 0;
+		plannedYvel = ( dir == SOUTH ) ? dist : ( dir == NORTH ) ? -dist : 0;
+		return true;
+	}
+	
+	static double chance( double p, int ticks)
+	{
+		return ( ticks == 1 ) ? p : 1.0 - Math.pow( 1.0-p, ticks);
+	}
+	
 	public void onDestroy() 
 	{
 		walkmap.unregisterRect( collHandle);
@@ -285,7 +324,17 @@ public class RNPC extends RObject implements Actor {
 			if ( dir == SOUTH ) yvel += dist;
 			if ( dir == WEST  ) xvel -= dist;
 			
-			Point dest = walkmap.moveAgainst( x, y, w, h, xvel, yvel, collHandle);			
+			//use ParallelStepper's answer if it was worked out for this
+			//exact move, and no collision rect has moved near it since
+			Point dest = null;
+			if ( plannedDest != null )
+			{
+				if ( plannedX == x && plannedY == y && plannedXvel == xvel && plannedYvel == yvel
+					 && !walkmap.rectsChangedNear( x, y, w, h, xvel, yvel) ) dest = plannedDest;
+				plannedDest = null;
+			}
+			if ( dest == null ) dest = walkmap.moveAgainst( x, y, w, h, xvel, yvel, collHandle);
+			
 			if ( dest.x != x || dest.y != y )
 			{
 				x = dest.x;
@@ -296,6 +345,7 @@ public class RNPC extends RObject implements Actor {
 			
 			Rectangle rect = new Rectangle( x-w/2, y-h/2, w, h);
 			walkmap.updateRect( collHandle, rect);
+			room.objectMoved( this);
 		}
 	}
 	
@@ -308,6 +358,7 @@ public class RNPC extends RObject implements Actor {
 	{
 		this.x = x;
 		this.y = y;
+		room.objectMoved( this);
 	}
 	
 	public void animate( String id, int framerate, int repeats)  
@@ -19,6 +19,13 @@ public abstract class RObject {
 	public String id;
 	public int x, y, w, h;
 	
+	//this object's slot in the Room's ObjectGrid
+	int gridSlot = -1;
+	
+	//StepLOD bookkeeping
+	int ticksOwed = 0;
+	int wokenAt = -StepLOD.WAKE_TICKS-1;
+	
 	protected boolean enabled;
 	public boolean isEnabled() { return enabled; }
 	public void enable() { enabled = true; }
@@ -32,52 +39,66 @@ public abstract class RObject {
 	
 	/*
 	 * Static method to parse object records.
-	 * Reads in three bytes of the header, then passes
-	 * control onto the relevant child constructor.
+	 * Reads in three bytes of the header, then passes control onto the
+	 * relevant child constructor, leaving the cursor at the start of the
+	 * next record. Returns null for a record of an unknown type, or one
+	 * which can't be parsed; either is skipped over.
+	 * 
+	 * Each record starts with its length, but the editor which saved the
+	 * shipped rooms under-counted most of them (a doodad's or an NPC's
+	 * leaves out its id, a gate's its destination and more besides), so
+	 * a known record's length is only trusted when it covers everything
+	 * its constructor parsed. A longer record has fields this version
+	 * doesn't know about, and they're skipped. Throws an IOException if
+	 * there's no telling where the next record starts.
 	 */
 	
-	public static RObject createFrom( DataInputStream stream, Room room)
+	static RObject createFrom( NQRCursor in, Room room) throws IOException
 	{
 		RObject obj = null;
 		
+		//read in length
+		int len = in.readUnsignedShort();
+		int start = in.position();
+		
 		try {
 			
-			//read in length
-			int len = stream.read();
-			len = (len<<8) | stream.read();
-			
 			//read in type
-			char temptype = (char) stream.read();
+			char temptype = (char) in.read();
 			
 			//construct an object of the correct type
 			switch(temptype)
 			{
 				case 'D': 
-					obj = new RDoodad( stream, room); 
+					obj = new RDoodad( in, room); 
 				break;
 				
 				case 'G':
-					obj = new RGate( stream, room);
+					obj = new RGate( in, room);
 				break;
 				
 				case 'N':
-					obj = new RNPC( stream, room);
+					obj = new RNPC( in, room);
 				break;
 				
 				case 'E':
-					obj = new REnemy( stream, room);
+					obj = new REnemy( in, room);
 				break;
 				
 				case 'T':
-					obj = new RTrigger( stream, room);
+					obj = new RTrigger( in, room);
 				break;
-				
-				default: 
-					stream.skip(len-1);
 			}
 			
-		} catch ( IOException exIO ) { return null; }
+		} catch ( IOException exIO ) {
+			
+			//the record's length is all there is to go on
+			System.out.println( "Skipping malformed object record at " + start + " in " + room.getFilepath() + ": " + exIO.getMessage());
+			in.seek( start+len);
+			return null;
+		}
 		
+		if ( in.position() < start+len ) in.seek( start+len);
 		return obj;
 	}
 	
@@ -86,70 +107,103 @@ public abstract class RObject {
 	 * This should be called at the start of each child constructor.
 	 */
 	
-	protected void readHeader( DataInputStream stream)
+	protected void readHeader( NQRCursor in) throws IOException
 	{
-		try {
-			
-			id = readPascalString( stream);
-			x = stream.readShort();
-			y = stream.readShort();
-			enabled = stream.readBoolean();
-			
-		} catch ( IOException exIO ) { return; }
+		id = in.readPascalString();
+		x = in.readShort();
+		y = in.readShort();
+		enabled = in.readBoolean();
 	}
 	
 	/*
-	 * Utility function. Reads a string with the format "two
-	 * bytes indicating length, followed by the string data".
+	 * Utility functions which interpret the RObject's x, y, w and h.
+	 * An object's bounds are its box grown by getReach() on every side.
+	 * The player position passed to touches() and isInteractable() is the
+	 * centre of the player's box, as with room objects.
+	 * Neither allocates anything, since FieldModule calls them every step.
 	 */
 	
-	public static String readPascalString( DataInputStream stream)
+	public int getReach()
 	{
-		try {
-			
-			int len = stream.readShort();
-			byte[] buf = new byte[len];
-			stream.readFully( buf);
-			return new String( buf);
-			
-		} catch ( IOException exIO ) { return null; }
+		return 0;
 	}
 	
-	/*
-	 * Utility functions which interpret the RObject's x, y, w and h.
-	 */
-	
 	public Rectangle getBounds()
 	{
-		return new Rectangle( x-w/2, y-h/2, w, h);
+		int r = getReach();
+		return new Rectangle( x-(w/2+r), y-(h/2+r), w+2*r, h+2*r);
+	}
+	
+	public boolean touches( int px, int py, int pw, int ph)
+	{
+		int r = getReach();
+		return overlaps( x-(w/2+r), y-(h/2+r), w+2*r, h+2*r, px-pw/2, py-ph/2, pw, ph);
 	}
 	
 	public boolean isInteractable( int px, int py, int pw, int ph, int pdir)
 	{
-		Rectangle player = new Rectangle( px-pw/2, py-ph/2, pw, ph);
-		Rectangle entity = getBounds();
-		
-		entity.x--; entity.y--;
-		entity.width += 2;
-		entity.height += 2;
+		int r = getReach() + 1;
+		int ex = x-(w/2+r), ey = y-(h/2+r), ew = w+2*r, eh = h+2*r;
+		px -= pw/2; py -= ph/2;
 		
-		if ( entity.intersects(player) )
+		if ( overlaps( ex, ey, ew, eh, px, py, pw, ph) )
 		{
-			Rectangle union = entity.intersection(player);
+			int ux = Math.max( ex, px), uy = Math.max( ey, py);
+			int uw = Math.min( ex+ew, px+pw) - ux;
+			int uh = Math.min( ey+eh, py+ph) - uy;
 			
-			if ( union.width == 1 )
+			if ( uw == 1 )
 			{
-				if ( union.x <= x - w/4 && pdir == 1 ) return true;
-				if ( union.x >= x + w/4 && pdir == 3 ) return true;
+				if ( ux <= x - w/4 && pdir == 1 ) return true;
+				if ( ux >= x + w/4 && pdir == 3 ) return true;
 			}
-			else if ( union.height == 1 )
+			else if ( uh == 1 )
 			{
-				if ( union.y <= y - h/4 && pdir == 2 ) return true;
-				if ( union.y >= y + h/4 && pdir == 0 ) return true;
+				if ( uy <= y - h/4 && pdir == 2 ) return true;
+				if ( uy >= y + h/4 && pdir == 0 ) return true;
 			}
 			else return true;
 		}
 			
 		return false;
 	}
+	
+	/*
+	 * Steps the object by several ticks at once. Called instead of onStep()
+	 * when StepLOD has been skipping the object; subclasses which can cheaply
+	 * approximate several ticks should override it.
+	 */
+	
+	public void onStep( int ticks)
+	{
+		for( int i=0; i<ticks; i++) onStep();
+	}
+	
+	/*
+	 * Animation event. Called once every tick for each enabled object, after
+	 * everything else has moved, even while the field is paused and whether
+	 * or not StepLOD is stepping the object. Animation counters are advanced
+	 * here, at the tick rate, so that onDraw() only ever reads them.
+	 */
+	
+	public void onAnimate()
+	{
+	}
+	
+	/*
+	 * Whether onStep() does anything. Objects which answer false are only
+	 * visited by FieldModule when the player is close enough to touch them.
+	 */
+	
+	public boolean isStepped()
+	{
+		return true;
+	}
+	
+	//as Rectangle.intersects()
+	private static boolean overlaps( int ax, int ay, int aw, int ah, int bx, int by, int bw, int bh)
+	{
+		if ( aw <= 0 || ah <= 0 || bw <= 0 || bh <= 0 ) return false;
+		return bx < ax+aw && by < ay+ah && bx+bw > ax && by+bh > ay;
+	}
 }
@@ -11,26 +11,20 @@ public class RTrigger extends RObject {
 	
 	String script;
 	
-	RTrigger( InputStream istream, Room room)
+	RTrigger( NQRCursor in, Room room) throws IOException
 	{
 		type = 'T';
 		
-		try {
-			
-			DataInputStream stream = new DataInputStream(istream);
-			
-			//header
-			readHeader(stream);
-			
-			//size
-			w = stream.readShort();
-			h = stream.readShort();
-			x += w/2; y += h/2;
-			
-			//script
-			script = readPascalString(stream);
-			
-		} catch ( IOException exIO ) { return; }
+		//header
+		readHeader( in);
+		
+		//size
+		w = in.readShort();
+		h = in.readShort();
+		x += w/2; y += h/2;
+		
+		//script
+		script = in.readPascalString();
 	}
 
 	public void onContact() 
@@ -54,5 +48,10 @@ public class RTrigger extends RObject {
 	public void onStep() 
 	{
 	}
+	
+	public boolean isStepped()
+	{
+		return false;
+	}
 
 }
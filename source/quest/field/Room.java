@@ -2,92 +2,379 @@ package quest.field;
 
 import quest.*;
 import java.io.*;
+import java.nio.*;
 import java.util.*;
 
 /*
  * The functional unit of the field engine.
  * Each room corresponds to an NQR file. In fact, all of the data
  * wrapped by each Room is loaded directly from that room's NQR.
+ * 
+ * Rooms saved by the older editor (.nqr, which is everything currently
+ * shipped) lack the version byte, init script and reserved block at the
+ * start of the header. Everything after the header is laid out the same.
+ * 
+ * Version 2 rooms (written by RoomConverter) keep a short header, with
+ * the room's size, init script and tileset, and put everything else in
+ * tagged sections:
+ * 
+ *   SPRITES    every sprite the room's objects load, pre-resolved, so
+ *              they can be known without constructing the room (see
+ *              readDependencies())
+ *   COLLISION  the walkmap, already split into the tile and slope
+ *              planes Walkmap keeps (see Walkmap.bake())
+ *   TILES      the tilemap, as twelve planes: the first byte of every
+ *              cell's v1 record, then the second, and so on
+ *   INDEX      each object id, with the object getObject() gives for it
+ *   OBJECTS    the object records as in v1, but with lengths that can
+ *              be trusted (see RObject.createFrom())
+ * 
+ * The COLLISION and TILES sections are run-length encoded (see
+ * NQRCursor.readRunLength()); the tile planes are mostly long runs of
+ * empty layers.
+ * 
+ * Either way, the file is read into a single buffer (a slice of the
+ * AssetArchive, where there is one) and parsed from there with an
+ * NQRCursor.
+ * 
+ * Each Room also has its own random number generator, seeded from the
+ * session seed and the room's filepath. Room objects should use it rather
+ * than Math.random(), so that a recorded session replays exactly.
  */
 
 public class Room {
 
 	public static final int TILEW = 24, TILEH = 24;
 	
+	//the NQR version RoomConverter writes, and its sections' tags
+	public static final int VERSION = 2;
+	static final int SECTION_SPRITES = 'S', SECTION_COLLISION = 'C', SECTION_TILES = 'T';
+	static final int SECTION_INDEX = 'I', SECTION_OBJECTS = 'O';
+	
+	private static long sessionSeed = System.nanoTime();
+	
+	private String filepath;
+	private Random random;
 	private int w, h;
 	private Walkmap walkmap;
 	private Tilemap tilemap;
+	private TileChunkCache tileCache;
 	private SpriteBank spriteBank;
 	private List<RObject> objects;
+	private ObjectGrid objectGrid;
+	private FlowField chaseField;
+	private HashMap<Integer,FlowField> homeFields = new HashMap<Integer,FlowField>();
 	private HashMap<String,Actor> actors;
+	private HashMap<String,Integer> objectIndex;
 	private Sprite tileset;
 	private String initScript;
 	
 	Room( String filepath)
 	{
+		this( filepath, true);
+	}
+	
+	/*
+	 * Loads the room at the given filepath. If that's a .nqr which has
+	 * been converted to v2 (see RoomConverter), the converted file is
+	 * loaded in its place, unless asked not to; the Room still goes by the
+	 * filepath it was asked for, so its random seed and its variables in
+	 * State are the same either way.
+	 */
+	
+	Room( String filepath, boolean converted)
+	{
+		this.filepath = filepath;
+		random = new Random( sessionSeed ^ filepath.hashCode());
 		spriteBank = new SpriteBank();
 		objects = new ArrayList<RObject>();
 		actors = new HashMap<String,Actor>( 128);
 		
 		try {
 
-			//open the room descriptor file
-			InputStream baseStream = getClass().getResourceAsStream(filepath);
-			DataInputStream stream = new DataInputStream(baseStream);
+			//get the whole room descriptor file into one buffer
+			boolean legacy = filepath.endsWith(".nqr");
+			ByteBuffer data = null;
+			if ( legacy && converted )
+			{
+				data = AssetArchive.getBuffer( RoomConverter.convertedPath( filepath));
+				if ( data != null ) legacy = false;
+			}
+			if ( data == null ) data = AssetArchive.getBuffer( filepath);
+			if ( data == null ) throw new FileNotFoundException( filepath);
+			NQRCursor in = new NQRCursor( data);
 			
-			//read in the header
-			stream.read(); //version
-			w = stream.read();
-			h = stream.read();
-			initScript = RObject.readPascalString( stream);
-			stream.skipBytes(64); //reserved
+			//read in the version, and the rest according to it
+			int version = legacy ? 0 : in.read();
+			if ( version == VERSION ) readV2( in);
+			else readV1( in, legacy);
 			
-			//read in the tileset's filepath, and load the tileset from file
-			String tilepath = RObject.readPascalString( stream);
-			tileset = new Sprite( Game.SPRITEPATH+"tilesets/"+tilepath);
-			tileset.sliceFrames( Room.TILEW, Room.TILEH, 0, 0, 1, 1);
+			objectGrid = new ObjectGrid( w, h, objects);
+			if ( objectIndex == null ) objectIndex = indexObjects( objects);
+			
+		} catch ( Exception ex ) { ex.printStackTrace(); return; }
+	}
+	
+	/*
+	 * Reads the rest of a legacy or v1 NQR, after the version byte.
+	 */
+	
+	private void readV1( NQRCursor in, boolean legacy) throws IOException
+	{
+		//read in the header
+		w = in.read();
+		h = in.read();
+		initScript = "";
+		if ( !legacy )
+		{
+			initScript = in.readPascalString();
+			in.seek( in.position()+64); //reserved
+		}
+		
+		//read in the tileset's filepath, and load the tileset from file
+		String tilepath = in.readPascalString();
+		tileset = spriteBank.loadSprite( Game.SPRITEPATH+"tilesets/"+tilepath, Room.TILEW, Room.TILEH, 0, 0, 1, 1);
+	
+		//read in the walkdata, and construct a Walkmap from it
+		byte[] walkdata = new byte[w*h];
+		in.readFully( walkdata);
+		byte[][] walkbuf = new byte[w][h];
+		for( int y=0; y<h; y++)
+		for( int x=0; x<w; x++)
+		{
+			walkbuf[x][y] = walkdata[x+y*w];
+		}
+		walkmap = new Walkmap( walkbuf);
+		
+		//read in the tiledata, likewise constructing a Tilemap
+		byte[] tilebuf = new byte[w*h*12];
+		in.readFully( tilebuf);
+		tilemap = new Tilemap( w, h, tilebuf);
+		tileCache = new TileChunkCache( tilemap, tileset);
 		
-			//read in the walkdata, and construct a Walkmap from it
-			byte[][] walkbuf = new byte[w][h];
-			for( int y=0; y<h; y++)
-			for( int x=0; x<w; x++)
+		readObjects( in, in.read());
+	}
+	
+	/*
+	 * Reads the rest of a v2 NQR, after the version byte: the header,
+	 * then its sections, each a tag byte and an int length followed by
+	 * that many bytes. Sections this version doesn't know are skipped.
+	 */
+	
+	private void readV2( NQRCursor in) throws IOException
+	{
+		w = in.readShort();
+		h = in.readShort();
+		initScript = in.readPascalString();
+		String tilepath = in.readPascalString();
+		tileset = spriteBank.loadSprite( Game.SPRITEPATH+"tilesets/"+tilepath, Room.TILEW, Room.TILEH, 0, 0, 1, 1);
+		
+		while( in.remaining() > 0 )
+		{
+			int tag = in.read();
+			int len = in.readInt();
+			int end = in.position()+len;
+			
+			switch( tag )
+			{
+				case SECTION_SPRITES:
+					//only wanted before the room is constructed (see readDependencies())
+				break;
+				
+				case SECTION_COLLISION:
+					walkmap = new Walkmap( w, h, in.readRunLength( len, 2*w*h));
+				break;
+				
+				case SECTION_TILES:
+					tilemap = new Tilemap( w, h, in.readRunLength( len, w*h*12), true);
+					tileCache = new TileChunkCache( tilemap, tileset);
+				break;
+				
+				case SECTION_INDEX:
+					int ids = in.readShort();
+					objectIndex = new HashMap<String,Integer>( ids*2);
+					for( int i=0; i<ids; i++) objectIndex.put( in.readPascalString(), in.readShort());
+				break;
+				
+				case SECTION_OBJECTS:
+					if ( walkmap == null || tilemap == null ) throw new IOException( "objects before the map in " + filepath);
+					int count = in.readShort();
+					readObjects( in, count);
+					
+					//the index is only good if every object was read
+					if ( objects.size() != count ) objectIndex = null;
+				break;
+			}
+			
+			in.seek( end);
+		}
+		
+		if ( walkmap == null || tilemap == null ) throw new IOException( "no map in " + filepath);
+	}
+	
+	/*
+	 * Reads just the SPRITES section of the converted version of the room
+	 * at the given filepath: every sprite constructing the room will load.
+	 * Returns null if the room hasn't been converted, since then there's no
+	 * knowing without constructing it.
+	 */
+	
+	static List<String> readDependencies( String filepath) throws IOException
+	{
+		if ( filepath.endsWith(".nqr") ) filepath = RoomConverter.convertedPath( filepath);
+		ByteBuffer data = AssetArchive.getBuffer( filepath);
+		if ( data == null ) return null;
+		
+		NQRCursor in = new NQRCursor( data);
+		if ( in.read() != VERSION ) return null;
+		
+		//skip the header
+		in.readShort();
+		in.readShort();
+		in.readPascalString();
+		in.readPascalString();
+		
+		while( in.remaining() > 0 )
+		{
+			int tag = in.read();
+			int len = in.readInt();
+			
+			if ( tag == SECTION_SPRITES )
 			{
-				walkbuf[x][y] = (byte) stream.read();
+				int sprites = in.readShort();
+				List<String> dependencies = new ArrayList<String>( sprites);
+				for( int i=0; i<sprites; i++) dependencies.add( in.readPascalString());
+				return dependencies;
 			}
-			walkmap = new Walkmap( walkbuf);
 			
-			//read in the tiledata, likewise constructing a Tilemap
-			byte[] tilebuf = new byte[w*h*12];
-			stream.read( tilebuf, 0, tilebuf.length);
-			tilemap = new Tilemap( w, h, tilebuf);
+			in.seek( in.position()+len);
+		}
+		
+		return null;
+	}
+	
+	/*
+	 * Reads in and constructs each object, skipping any that can't be, and
+	 * stopping early if the rest of the file can't be made sense of.
+	 */
+	
+	private void readObjects( NQRCursor in, int count)
+	{
+		try {
 			
-			//read in and construct each object
-			int count = stream.read();
 			for( int i=0; i<count; i++)
 			{
-				RObject obj = RObject.createFrom( stream, this);
+				RObject obj = RObject.createFrom( in, this);
+				if ( obj == null ) continue;
 				objects.add( obj);
 				
 				if ( obj instanceof Actor ) actors.put( obj.id.toLowerCase(), (Actor)obj);
 			}
 			
-			//add the player to the list of actors
-			actors.put( "player", FieldModule.get().getPlayer());
-			actors.put( "nepeta", FieldModule.get().getPlayer());
-			
-			//clean up
-			stream.close();
-			
-		} catch ( Exception ex ) { ex.printStackTrace(); return; }
+		} catch ( IOException exIO ) { System.out.println( "Couldn't read all of " + filepath + ": " + exIO.getMessage()); }
+	}
+	
+	/*
+	 * Maps each id to the first object with it, as getObject() finds them.
+	 */
+	
+	static HashMap<String,Integer> indexObjects( List<RObject> objects)
+	{
+		HashMap<String,Integer> index = new HashMap<String,Integer>( objects.size()*2);
+		for( int i=objects.size()-1; i>=0; i--) index.put( objects.get(i).id, i);
+		return index;
+	}
+	
+	/*
+	 * Makes this the room the player is in. The constructor only loads
+	 * the room, and touches nothing outside it, so it's safe to run on
+	 * another thread (see RoomPrefetcher); anything involving the rest of
+	 * the field engine waits until here, on the game thread.
+	 */
+	
+	void attach( Player player)
+	{
+		//add the player to the list of actors
+		actors.put( "player", player);
+		actors.put( "nepeta", player);
 	}
 	
+	/*
+	 * Called when the player leaves the room for good, to give its
+	 * sprites back to the SpriteCache.
+	 */
+	
+	void release()
+	{
+		spriteBank.release();
+	}
+	
+	/*
+	 * Actors call this whenever they change position, to keep
+	 * the ObjectGrid up to date.
+	 */
+	
+	void objectMoved( RObject obj)
+	{
+		if ( objectGrid != null ) objectGrid.update( obj);
+	}
+	
+	/*
+	 * Flow fields, for REnemy. The chase field is shared by every enemy
+	 * in the room, and is pointed at wherever the player is. Home fields
+	 * lead back to a particular tile (an enemy's spawn point), and are
+	 * kept once they've been made. A home field is brought up to date with
+	 * the Walkmap each time it's asked for, as the chase field is each time
+	 * it's pointed at the player.
+	 */
+	
+	public FlowField getChaseField()
+	{
+		if ( chaseField == null ) chaseField = new FlowField( walkmap);
+		return chaseField;
+	}
+	
+	public FlowField getHomeField( int px, int py)
+	{
+		int tx = Math.max( 0, Math.min( w-1, Math.floorDiv( px, TILEW)));
+		int ty = Math.max( 0, Math.min( h-1, Math.floorDiv( py, TILEH)));
+		
+		FlowField field = homeFields.get( tx+ty*w);
+		if ( field == null )
+		{
+			field = new FlowField( walkmap);
+			homeFields.put( tx+ty*w, field);
+		}
+		
+		//recomputes the field if the Walkmap has changed since it was made
+		field.setTarget( tx, ty);
+		return field;
+	}
+	
+	/*
+	 * Returns the first object with the given id, or null.
+	 */
+	
+	public RObject getObject( String id)
+	{
+		Integer i = ( objectIndex == null ) ? null : objectIndex.get( id);
+		return ( i == null ) ? null : objects.get( i);
+	}
+	
+	public static void setSessionSeed( long seed) { sessionSeed = seed; }
+	public static long getSessionSeed() { return sessionSeed; }
+	
+	public String getFilepath() { return filepath; }
+	public Random getRandom() { return random; }
 	public int getWidth() { return w; }
 	public int getPixelWidth() { return w*TILEW; }
 	public int getHeight() { return h; }
 	public int getPixelHeight() { return h*TILEH; }
 	public Walkmap getWalkmap() { return walkmap; }
 	public Tilemap getTilemap() { return tilemap; }
+	public TileChunkCache getTileCache() { return tileCache; }
 	public List<RObject> getObjectList() { return objects; }
+	public ObjectGrid getObjectGrid() { return objectGrid; }
 	public Map<String,Actor> getActorMap() { return actors; }
 	public SpriteBank getSpriteBank() { return spriteBank; }
 	public Sprite getTileset() { return tileset; }
@@ -0,0 +1,214 @@
+package quest.field;
+
+import quest.*;
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+/*
+ * Converts rooms from the legacy NQR format to v2 (see Room):
+ *
+ *   java quest.field.RoomConverter <output directory> [room.nqr ...]
+ *
+ * Rooms are named as in Game.DATAPATH, and read from the classpath (or
+ * the asset archive); with none named, every room in the data directory's
+ * index is converted. Each is written to the output directory with the
+ * extension .nq2. Once a converted room is in the data directory beside the
+ * original (or packed into the archive), Room loads it instead, so gates
+ * and saves can go on naming the .nqr.
+ *
+ * Each room is loaded as normal first, and whatever the loader worked out
+ * is baked into the v2 file: the sprites its objects loaded, the walkmap's
+ * planes, and the object index. Its object records are copied across with
+ * their lengths corrected; records which don't parse are left out.
+ */
+
+public class RoomConverter {
+	
+	public static final String EXTENSION = ".nq2";
+	
+	/*
+	 * Where the converted version of a .nqr would be.
+	 */
+	
+	static String convertedPath( String filepath)
+	{
+		return filepath.substring( 0, filepath.length()-4) + EXTENSION;
+	}
+	
+	public static void main( String[] args) throws IOException
+	{
+		if ( args.length < 1 )
+		{
+			System.out.println( "usage: java quest.field.RoomConverter <output directory> [room.nqr ...]");
+			System.exit(1);
+		}
+		
+		File outdir = new File( args[0]);
+		outdir.mkdirs();
+		
+		List<String> rooms = new ArrayList<String>();
+		for( int a=1; a<args.length; a++) rooms.add( args[a]);
+		if ( rooms.isEmpty() )
+		{
+			for( String file : new Directory( Game.DATAPATH).getFileList())
+			{
+				if ( file.endsWith(".nqr") ) rooms.add( file);
+			}
+		}
+		
+		for( String room : rooms)
+		{
+			byte[] v2 = convert( Game.DATAPATH + room);
+			File out = new File( outdir, convertedPath( room));
+			
+			FileOutputStream stream = new FileOutputStream( out);
+			stream.write( v2);
+			stream.close();
+			
+			System.out.println( room + ": " + AssetArchive.getBuffer( Game.DATAPATH + room).remaining() + " -> " + v2.length + " bytes");
+		}
+	}
+	
+	/*
+	 * Returns the v2 NQR for the legacy room at the given filepath.
+	 */
+	
+	static byte[] convert( String filepath) throws IOException
+	{
+		if ( !filepath.endsWith(".nqr") ) throw new IOException( filepath + " isn't a legacy room");
+		
+		//load the room the usual way, for everything derived from it
+		Room room = new Room( filepath, false);
+		
+		//then go through the file again, for the parts copied as they are
+		ByteBuffer data = AssetArchive.getBuffer( filepath);
+		NQRCursor in = new NQRCursor( data);
+		int w = in.read(), h = in.read();
+		String tilepath = in.readPascalString();
+		in.seek( in.position() + w*h); //walkdata, baked from the Walkmap instead
+		byte[] tilebuf = new byte[w*h*12];
+		in.readFully( tilebuf);
+		
+		//copy each object record that parses, with its real length; parsing
+		//them again creates a second set of objects, but only in this room
+		ByteArrayOutputStream records = new ByteArrayOutputStream();
+		List<RObject> parsed = new ArrayList<RObject>();
+		int count = in.read();
+		for( int i=0; i<count; i++)
+		{
+			int start = in.position();
+			RObject obj = RObject.createFrom( in, room);
+			if ( obj == null ) continue;
+			
+			int len = in.position() - (start+2);
+			records.write( len >> 8);
+			records.write( len);
+			byte[] body = new byte[len];
+			ByteBuffer copy = data.duplicate();
+			copy.position( start+2);
+			copy.get( body);
+			records.write( body, 0, len);
+			parsed.add( obj);
+		}
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream( data.capacity());
+		DataOutputStream out = new DataOutputStream( bytes);
+		
+		//header
+		out.write( Room.VERSION);
+		out.writeShort( w);
+		out.writeShort( h);
+		writePascalString( out, room.getInitScript());
+		writePascalString( out, tilepath);
+		
+		//sprites
+		ByteArrayOutputStream section = new ByteArrayOutputStream();
+		DataOutputStream sout = new DataOutputStream( section);
+		List<String> sprites = room.getSpriteBank().getFilepaths();
+		sout.writeShort( sprites.size());
+		for( String sprite : sprites) writePascalString( sout, sprite);
+		writeSection( out, Room.SECTION_SPRITES, section.toByteArray());
+		
+		//collision and tiles
+		byte[] planes = new byte[w*h*12];
+		for( int k=0; k<12; k++)
+		for( int c=0; c<w*h; c++)
+		{
+			planes[k*w*h+c] = tilebuf[c*12+k];
+		}
+		writeSection( out, Room.SECTION_COLLISION, runLength( room.getWalkmap().bake()));
+		writeSection( out, Room.SECTION_TILES, runLength( planes));
+		
+		//object index
+		section.reset();
+		HashMap<String,Integer> index = Room.indexObjects( parsed);
+		sout.writeShort( index.size());
+		for( Map.Entry<String,Integer> entry : new TreeMap<String,Integer>( index).entrySet())
+		{
+			writePascalString( sout, entry.getKey());
+			sout.writeShort( entry.getValue());
+		}
+		writeSection( out, Room.SECTION_INDEX, section.toByteArray());
+		
+		//objects
+		section.reset();
+		sout.writeShort( parsed.size());
+		records.writeTo( sout);
+		writeSection( out, Room.SECTION_OBJECTS, section.toByteArray());
+		
+		room.release();
+		out.close();
+		return bytes.toByteArray();
+	}
+	
+	private static void writeSection( DataOutputStream out, int tag, byte[] body) throws IOException
+	{
+		out.write( tag);
+		out.writeInt( body.length);
+		out.write( body);
+	}
+	
+	private static void writePascalString( DataOutputStream out, String s) throws IOException
+	{
+		byte[] b = s.getBytes();
+		out.writeShort( b.length);
+		out.write( b);
+	}
+	
+	/*
+	 * Run-length encodes the given bytes, as NQRCursor.readRunLength()
+	 * decodes them. Runs of three or more are repeated; anything else is
+	 * copied in literal runs of up to 128 bytes.
+	 */
+	
+	private static byte[] runLength( byte[] b)
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream( b.length/4 + 64);
+		int i = 0;
+		while( i < b.length )
+		{
+			int run = 1;
+			while( i+run < b.length && run < 128 && b[i+run] == b[i] ) run++;
+			
+			if ( run >= 3 )
+			{
+				out.write( 1-run);
+				out.write( b[i]);
+				i += run;
+				continue;
+			}
+			
+			//a literal run, up to the next run worth repeating
+			int start = i;
+			while( i < b.length && i-start < 128 )
+			{
+				if ( i+2 < b.length && b[i] == b[i+1] && b[i] == b[i+2] ) break;
+				i++;
+			}
+			out.write( i-start-1);
+			out.write( b, start, i-start);
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,171 @@
+package quest.field;
+
+import quest.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * Loads rooms in the background before the player reaches them.
+ *
+ * Every tick, FieldModule hands update() the player's position. When the
+ * player comes within the prefetch radius of one of the current room's
+ * gates, the room on the other side starts loading on a background thread.
+ * By the time the player has walked into the gate and the screen has faded
+ * out, it's usually ready, and take() just hands it over; if it isn't,
+ * take() waits for it, which is still no slower than loading it then.
+ *
+ * A prefetched room is handed over at most once, and is never stepped
+ * before it is, so it's indistinguishable from one loaded on the spot
+ * (its Random included). Loads for rooms that the new room has no gates
+ * to are dropped whenever the player changes rooms.
+ *
+ * The radius is in pixels from the edge of the gate, and can be set with
+ * configure() (Game's -prefetch option). 0 switches prefetching off.
+ *
+ * Every room, prefetched or not, is loaded through load(), which decodes
+ * a converted room's sprites ahead of constructing it (see
+ * Room.readDependencies()).
+ */
+
+public class RoomPrefetcher {
+	
+	private static int radius = 4*Room.TILEW;
+	
+	private ExecutorService loader = null;
+	private HashMap<String,Future<Room>> loads = new HashMap<String,Future<Room>>();
+	private List<RGate> gates = new ArrayList<RGate>();
+	
+	public static void configure( int pixels)
+	{
+		radius = Math.max( 0, pixels);
+	}
+	
+	/*
+	 * Called whenever a different room is attached.
+	 */
+	
+	void roomChanged( Room room)
+	{
+		gates.clear();
+		HashSet<String> destinations = new HashSet<String>();
+		for( RObject obj : room.getObjectList())
+		{
+			if ( !(obj instanceof RGate) ) continue;
+			gates.add( (RGate)obj);
+			destinations.add( ((RGate)obj).getDestination());
+		}
+		
+		Iterator<Map.Entry<String,Future<Room>>> it = loads.entrySet().iterator();
+		while( it.hasNext() )
+		{
+			Map.Entry<String,Future<Room>> load = it.next();
+			if ( destinations.contains( load.getKey()) ) continue;
+			
+			//a load that has already started gets its sprites back to
+			//the SpriteCache once it's finished
+			final Future<Room> dropped = load.getValue();
+			if ( !dropped.cancel( false) )
+			{
+				getLoader().submit( new Runnable() {
+					public void run()
+					{
+						try {
+							dropped.get().release();
+						} catch ( Exception ex ) { ex.printStackTrace(); }
+					}
+				});
+			}
+			it.remove();
+		}
+	}
+	
+	/*
+	 * Starts loading the destination of any gate the player is near.
+	 */
+	
+	void update( int px, int py)
+	{
+		if ( radius == 0 ) return;
+		
+		for( int i=0; i<gates.size(); i++)
+		{
+			RGate gate = gates.get(i);
+			if ( !gate.isEnabled() ) continue;
+			
+			int dx = Math.max( 0, Math.abs( px - gate.x) - gate.w/2);
+			int dy = Math.max( 0, Math.abs( py - gate.y) - gate.h/2);
+			if ( Math.max( dx, dy) > radius ) continue;
+			
+			final String path = gate.getDestination();
+			if ( loads.containsKey( path) ) continue;
+			
+			loads.put( path, getLoader().submit( new Callable<Room>() {
+				public Room call() { return load( path); }
+			}));
+		}
+	}
+	
+	/*
+	 * Returns the room at the given path, loaded in the background if
+	 * possible, but not yet attached.
+	 */
+	
+	Room take( String filepath)
+	{
+		Future<Room> load = loads.remove( filepath);
+		if ( load != null )
+		{
+			try {
+				return load.get();
+			} catch ( Exception ex ) { ex.printStackTrace(); }
+		}
+		
+		return load( filepath);
+	}
+	
+	/*
+	 * Loads the room at the given path. If it's been converted, the
+	 * sprites it lists are decoded into the SpriteCache first, across
+	 * the common ForkJoinPool, rather than one after another as its
+	 * objects are constructed.
+	 */
+	
+	static Room load( String filepath)
+	{
+		try {
+			
+			List<String> sprites = Room.readDependencies( filepath);
+			if ( sprites != null )
+			{
+				List<Callable<Object>> decodes = new ArrayList<Callable<Object>>( sprites.size());
+				for( final String sprite : sprites)
+				{
+					decodes.add( Executors.callable( new Runnable() {
+						public void run() { SpriteCache.preload( sprite); }
+					}));
+				}
+				ForkJoinPool.commonPool().invokeAll( decodes);
+			}
+			
+		} catch ( Exception ex ) { ex.printStackTrace(); }
+		
+		return new Room( filepath);
+	}
+	
+	private ExecutorService getLoader()
+	{
+		if ( loader == null )
+		{
+			loader = Executors.newSingleThreadExecutor( new ThreadFactory() {
+				public Thread newThread( Runnable r)
+				{
+					Thread thread = new Thread( r, "room prefetch");
+					thread.setDaemon( true);
+					thread.setPriority( Thread.MIN_PRIORITY);
+					return thread;
+				}
+			});
+		}
+		return loader;
+	}
+}
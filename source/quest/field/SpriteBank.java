@@ -4,29 +4,52 @@ import quest.*;
 import java.util.*;
 
 /*
- * A hashmap that loads and stores sprites on request based on
- * their filename. Prevents multiple loading of sprites. Should be used
- * only when duplicate requests are a possibility.
- * 
- * Provides no unloading capability; it can only be replaced with
- * a newly-constructed and empty bank.
+ * A handle onto the SpriteCache, which keeps track of every sprite loaded
+ * through it so they can all be given back at once with release(). Each
+ * Room has one, for its tileset and its objects' sprites, and FieldModule
+ * has one for the player's.
+ *
+ * Sprites loaded through a bank are shared with everything else that
+ * loaded the same image with the same slicing, so they mustn't be sliced
+ * again afterwards.
  */
 
 public class SpriteBank {
 	
-	Map<String,Sprite> map = new HashMap<String,Sprite>(100);
+	private List<String> held = new ArrayList<String>();
 	
 	public Sprite loadSprite( String filepath)
 	{
-		if ( map.containsKey( filepath) ) 
-		{
-			return map.get( filepath);
-		}
-		else
-		{
-			Sprite sprite = new Sprite( filepath);
-			map.put( filepath, sprite);
-			return sprite;
-		}
+		Sprite sprite = SpriteCache.acquire( filepath);
+		held.add( filepath);
+		return sprite;
+	}
+	
+	public Sprite loadSprite( String filepath, int width, int height, int xsep, int ysep, int xcount, int frames)
+	{
+		Sprite sprite = SpriteCache.acquire( filepath, width, height, xsep, ysep, xcount, frames);
+		held.add( filepath);
+		return sprite;
+	}
+	
+	/*
+	 * Every filepath loaded through the bank so far, in the order
+	 * they were first loaded.
+	 */
+	
+	public List<String> getFilepaths()
+	{
+		return new ArrayList<String>( new LinkedHashSet<String>( held));
+	}
+	
+	/*
+	 * Gives every sprite back to the cache, which may then drop them.
+	 * The bank can be used again afterwards.
+	 */
+	
+	public void release()
+	{
+		for( int i=0; i<held.size(); i++) SpriteCache.release( held.get(i));
+		held.clear();
 	}
 }
@@ -0,0 +1,92 @@
+package quest.field;
+
+import quest.*;
+
+/*
+ * Simulation level-of-detail for room objects.
+ *
+ * FieldModule asks ticksFor() how many ticks to step each object by, once
+ * per tick, based on how far the object is from the viewport:
+ *
+ *  - within the active radius, objects step every tick, as they always did;
+ *  - within the mid radius, they only step every midInterval ticks, but
+ *    are handed all the ticks they missed (see RObject.onStep(int));
+ *  - any further out they sleep, and the ticks they miss are forgotten.
+ *
+ * Objects are staggered by their ObjectGrid slot, so mid-range objects
+ * don't all come due on the same tick. An object which a FieldScript
+ * looks up with getObject() or getActor() is woken, and steps every tick
+ * for a while regardless of where it is.
+ *
+ * The radii are measured in pixels from the edge of the viewport, and can
+ * be set with configure() (Game's -lod option).
+ */
+
+public class StepLOD {
+	
+	public static final int WAKE_TICKS = 300;
+	
+	private static int activeRadius = 2*Room.TILEW;
+	private static int midRadius = 16*Room.TILEW;
+	private static int midInterval = 4;
+	
+	private int tick = 0;
+	private int vx, vy;
+	
+	public static void configure( int active, int mid, int interval)
+	{
+		activeRadius = Math.max( 0, active);
+		midRadius = Math.max( activeRadius, mid);
+		midInterval = Math.max( 1, interval);
+	}
+	
+	/*
+	 * Called at the start of each tick's object loop, with the
+	 * viewport's top-left corner.
+	 */
+	
+	public void beginStep( int viewX, int viewY)
+	{
+		tick++;
+		vx = viewX;
+		vy = viewY;
+	}
+	
+	/*
+	 * Returns how many ticks the object should be stepped by this tick.
+	 * Zero means it's skipped, and is counted as such in FrameStats.
+	 */
+	
+	public int ticksFor( RObject obj)
+	{
+		obj.ticksOwed++;
+		
+		int dist = distanceTo( obj);
+		if ( dist > activeRadius && tick - obj.wokenAt > WAKE_TICKS )
+		{
+			if ( dist > midRadius ) obj.ticksOwed = 0;
+			
+			if ( dist > midRadius || (tick + obj.gridSlot) % midInterval != 0 )
+			{
+				FrameStats.count( FrameStats.SKIPPED, 1);
+				return 0;
+			}
+		}
+		
+		int n = obj.ticksOwed;
+		obj.ticksOwed = 0;
+		return n;
+	}
+	
+	public void wake( RObject obj)
+	{
+		obj.wokenAt = tick;
+	}
+	
+	private int distanceTo( RObject obj)
+	{
+		int dx = Math.max( 0, Math.max( vx - obj.x, obj.x - (vx+Game.SCREENW)));
+		int dy = Math.max( 0, Math.max( vy - obj.y, obj.y - (vy+Game.SCREENH)));
+		return Math.max( dx, dy);
+	}
+}
@@ -33,7 +33,7 @@ public class TextBox {
 	{
 		try {
 			
-			InputStream stream = getClass().getResourceAsStream( Game.DATAPATH+"fonts/LucidaTypewriterBold.ttf");
+			InputStream stream = AssetArchive.getStream( Game.DATAPATH+"fonts/LucidaTypewriterBold.ttf");
 			font = Font.createFont( Font.TRUETYPE_FONT, stream);
 			font = font.deriveFont( Font.BOLD, 10.0f);
 			
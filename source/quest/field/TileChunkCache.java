@@ -0,0 +1,117 @@
+package quest.field;
+
+import quest.*;
+import java.awt.*;
+import java.awt.image.*;
+
+/*
+ * Pre-rendered images of a Tilemap's ground band (see Tilemap.isGround).
+ *
+ * Ground tiles hardly ever interleave with sprites, so rather than pushing
+ * them through the DrawOp every frame, they're baked into one image per
+ * Tilemap chunk and blitted underneath everything else. Tiles outside
+ * the ground band still have to be depth-sorted, and are submitted
+ * separately by Tilemap.drawOverlayTo(); so are the odd ground tiles
+ * which belong in front of a sprite (see DrawOp.setGround).
+ *
+ * Chunks are built lazily, the first time the viewport reaches them,
+ * and rebuilt whenever the Tilemap reports a new revision for them.
+ * Each one is baked onto black, the colour FieldModule clears the frame
+ * to, so that it's opaque and blitting it is a plain copy rather than a
+ * blend. Chunks along the room's right and bottom edges are cut down to
+ * the room, so nothing outside it is painted over.
+ */
+
+public class TileChunkCache {
+	
+	private static final int CHUNKPW = Tilemap.CHUNKW*Room.TILEW;
+	private static final int CHUNKPH = Tilemap.CHUNKH*Room.TILEH;
+	
+	private Tilemap tilemap;
+	private Sprite tileset;
+	
+	private BufferedImage[][] chunks;
+	private int[][] revisions;
+	private int cw, ch;
+	
+	TileChunkCache( Tilemap tilemap, Sprite tileset)
+	{
+		this.tilemap = tilemap;
+		this.tileset = tileset;
+		
+		cw = (tilemap.getWidth()+Tilemap.CHUNKW-1)/Tilemap.CHUNKW;
+		ch = (tilemap.getHeight()+Tilemap.CHUNKH-1)/Tilemap.CHUNKH;
+		chunks = new BufferedImage[cw][ch];
+		revisions = new int[cw][ch];
+	}
+	
+	/*
+	 * Draws every chunk which intersects the viewport.
+	 * (vx,vy) is the viewport's top-left corner, in room coordinates.
+	 */
+	
+	public void drawTo( Graphics g, int vx, int vy)
+	{
+		if ( tileset == null ) return;
+		
+		int cx1 = Math.max( 0, Math.floorDiv( vx, CHUNKPW));
+		int cy1 = Math.max( 0, Math.floorDiv( vy, CHUNKPH));
+		int cx2 = Math.min( cw-1, Math.floorDiv( vx+Game.SCREENW-1, CHUNKPW));
+		int cy2 = Math.min( ch-1, Math.floorDiv( vy+Game.SCREENH-1, CHUNKPH));
+		
+		for( int cy=cy1; cy<=cy2; cy++)
+		for( int cx=cx1; cx<=cx2; cx++)
+		{
+			if ( chunks[cx][cy] == null || revisions[cx][cy] != tilemap.getChunkRevision(cx,cy) )
+				buildChunk( cx, cy);
+			
+			BufferedImage img = chunks[cx][cy];
+			g.drawImage( img, cx*CHUNKPW-vx, cy*CHUNKPH-vy, null);
+			FrameStats.count( FrameStats.PIXELS, img.getWidth()*img.getHeight());
+		}
+	}
+	
+	private void buildChunk( int cx, int cy)
+	{
+		int x1 = cx*Tilemap.CHUNKW, y1 = cy*Tilemap.CHUNKH;
+		int x2 = Math.min( x1+Tilemap.CHUNKW, tilemap.getWidth());
+		int y2 = Math.min( y1+Tilemap.CHUNKH, tilemap.getHeight());
+		
+		BufferedImage img = chunks[cx][cy];
+		if ( img == null ) img = new BufferedImage( (x2-x1)*Room.TILEW, (y2-y1)*Room.TILEH, BufferedImage.TYPE_INT_RGB);
+		
+		Graphics g = img.getGraphics();
+		g.setColor( Color.black);
+		g.fillRect( 0, 0, img.getWidth(), img.getHeight());
+		int[] order = new int[4];
+		
+		for( int y=y1; y<y2; y++)
+		for( int x=x1; x<x2; x++)
+		{
+			Tilemap.Stack s = tilemap.getStackReference( x, y);
+			
+			//tiles only overlap within their own grid square, so the DrawOp's
+			//ordering reduces to a stable sort of the stack by descending depth
+			int n = 0;
+			for( int i=0; i<4; i++)
+			{
+				if ( s.getTileX(i) < 0 || s.getTileY(i) < 0 || !Tilemap.isGround( s, i) ) continue;
+				
+				int j = n++;
+				while ( j > 0 && s.getDepth( order[j-1]) < s.getDepth(i) ) { order[j] = order[j-1]; j--; }
+				order[j] = i;
+			}
+			
+			for( int k=0; k<n; k++)
+			{
+				int i = order[k];
+				tileset.drawTile( g, (x-x1)*Room.TILEW, (y-y1)*Room.TILEH, s.getTileX(i), s.getTileY(i));
+			}
+		}
+		
+		g.dispose();
+		
+		chunks[cx][cy] = img;
+		revisions[cx][cy] = tilemap.getChunkRevision( cx, cy);
+	}
+}
@@ -6,21 +6,32 @@ import quest.*;
  * A three-dimensional layout for room tiles.
  * Each grid rectangle contains a stack of up 
  * to four tiles, each with its own depth offset.
+ * 
+ * The grid is also divided into CHUNKW x CHUNKH chunks, each of which
+ * carries a revision counter. setTile() bumps the counter of the chunk
+ * it touches, so that TileChunkCache knows which of its images are stale.
+ * Every change to the tiles goes through setTile(); the stacks handed
+ * out by getStackReference() can't be changed.
  */
 
 public class Tilemap {
 	
+	public static final int CHUNKW = 8, CHUNKH = 8;
+	
 	private Stack[][] data;
 	private int w, h;
+	private int[][] chunkRevision;
 
 	/*
 	 * A stack of four tiles.
 	 * Negative values for tx or ty imply an empty tile.
+	 * Only the Tilemap can change a stack; everything else
+	 * reads it through the getters.
 	 */
 	
 	class Stack { 
 		
-		public int[] tx, ty, d;
+		private int[] tx, ty, d;
 		
 		Stack()
 		{
@@ -40,6 +51,10 @@ public class Tilemap {
 			
 			return s;
 		}
+		
+		public int getTileX( int layer) { return tx[layer]; }
+		public int getTileY( int layer) { return ty[layer]; }
+		public int getDepth( int layer) { return d[layer]; }
 	}
 	
 	/*
@@ -51,6 +66,7 @@ public class Tilemap {
 		w = width;
 		h = height;
 		data = new Stack[w][h];
+		chunkRevision = new int[(w+CHUNKW-1)/CHUNKW][(h+CHUNKH-1)/CHUNKH];
 		
 		for( int i=0; i<w; i++)
 		for( int j=0; j<h; j++) 
@@ -58,37 +74,66 @@ public class Tilemap {
 	}
 	
 	Tilemap( int width, int height, byte[] src)
+	{
+		this( width, height, src, false);
+	}
+	
+	/*
+	 * src holds the tilemap as encoded in room record files: twelve bytes
+	 * per cell, or (if planar) twelve planes of one byte per cell, as in v2
+	 * rooms. Either way the cells run along each row in turn.
+	 */
+	
+	Tilemap( int width, int height, byte[] src, boolean planar)
 	{
 		w = width;
 		h = height;
 		data = new Stack[w][h];
+		chunkRevision = new int[(w+CHUNKW-1)/CHUNKW][(h+CHUNKH-1)/CHUNKH];
 		
-		//src holds the tilemap as encoded in room record files
-		int q = 0;
+		int cellStride = planar ? 1 : 12;
+		int planeStride = planar ? w*h : 1;
+		
+		int c = 0;
 		for( int y=0; y<h; y++)
 		for( int x=0; x<w; x++)
 		{
 			data[x][y] = new Stack();
 			
+			int q = c*cellStride;
 			for( int i=0; i<4; i++)
 			{
 				data[x][y].tx[i] = src[q];
-				data[x][y].ty[i] = src[q+1];
-				data[x][y].d[i]  = src[q+2]-127;
+				data[x][y].ty[i] = src[q+planeStride];
+				data[x][y].d[i]  = src[q+2*planeStride]-127;
 				
 				if ( data[x][y].tx[i] == 0xff ) data[x][y].tx[i] = -1;
 				if ( data[x][y].ty[i] == 0xff ) data[x][y].ty[i] = -1;
 				
-				q += 3;
+				q += 3*planeStride;
 			}
+			c++;
 		}
 	}
 	
 	/*
-	 * Render the tilemap to a given DrawOp
+	 * Render the tilemap to a given DrawOp.
+	 * drawTo submits every tile; drawOverlayTo submits only those tiles 
+	 * which aren't part of the ground band (see isGround), and is intended
+	 * to be used alongside a TileChunkCache.
 	 */
 	
 	public void drawTo( DrawOp op, Sprite tileset, int vx, int vy)
+	{
+		submitTiles( op, tileset, vx, vy, true);
+	}
+	
+	public void drawOverlayTo( DrawOp op, Sprite tileset, int vx, int vy)
+	{
+		submitTiles( op, tileset, vx, vy, false);
+	}
+	
+	private void submitTiles( DrawOp op, Sprite tileset, int vx, int vy, boolean includeGround)
 	{
 		if ( tileset == null ) return;
 		
@@ -113,6 +158,7 @@ public class Tilemap {
 			for( int i=0; i<4; i++)
 			{
 				if ( s.tx[i] >= 0 && s.ty[i] >= 0 )
+				if ( includeGround || !isGround( s, i) )
 				{
 					op.drawTile( tileset, x*Room.TILEW, y*Room.TILEH, (s.d[i]-y)*Room.TILEH, s.tx[i], s.ty[i]);
 				}
@@ -120,16 +166,50 @@ public class Tilemap {
 		}
 	}
 	
+	/*
+	 * A tile is in the ground band if its depth offset is zero or positive.
+	 * Such a tile sits at or behind the top edge of its own grid square,
+	 * and most sprites are queued with a depth at (or below) their bottom
+	 * edge, so the tile is almost never drawn over a sprite that overlaps
+	 * it. Ground tiles are therefore pre-rendered underneath the DrawOp;
+	 * the few which do belong over a sprite are queued again by the DrawOp
+	 * (see DrawOp.setGround).
+	 */
+	
+	static boolean isGround( Stack s, int i)
+	{
+		return s.d[i] >= 0;
+	}
+	
 	/*
 	 * Getters and setters.
 	 */
 	
 	public Stack getStackReference( int x, int y)
 	{
+		//the stack can only be read; tiles are changed with setTile(),
+		//which keeps the chunk revisions up to date
 		if ( x < 0 || x >= w || y < 0 || y >= h ) return null;
 		return data[x][y];
 	}
 	
+	public void setTile( int x, int y, int layer, int tx, int ty, int d)
+	{
+		if ( x < 0 || x >= w || y < 0 || y >= h ) return;
+		if ( layer < 0 || layer >= 4 ) return;
+		
+		data[x][y].tx[layer] = tx;
+		data[x][y].ty[layer] = ty;
+		data[x][y].d[layer] = d;
+		
+		chunkRevision[x/CHUNKW][y/CHUNKH]++;
+	}
+	
+	public int getChunkRevision( int cx, int cy)
+	{
+		return chunkRevision[cx][cy];
+	}
+	
 	public int getWidth() { return w; }
 	public int getHeight() { return h; }
 	
@@ -1,12 +1,28 @@
 package quest.field;
 
 import java.awt.*;
+import java.util.Arrays;
 
 /*
  * A two-dimensional collision map, describing a room's 
  * stairs and walkability. Also stores an array of collision
  * rectangles, for use by NPCs, doodads, etc.
  * Handles collision detection and response.
+ * 
+ * Collision rects live in a registry of parallel int arrays, which grows
+ * as needed. Freed slots are chained into a free list, so registering and
+ * unregistering are constant-time. The handle given out for a rect is its
+ * slot number combined with the slot's generation, which is bumped each
+ * time the slot is freed; a handle kept after its rect was unregistered
+ * (eg by an RNPC which has been disabled) is then simply ignored, rather
+ * than acting on whichever rect has since taken over the slot.
+ * 
+ * Collision rects are also indexed in a grid with one cell per tile: each
+ * cell lists the slots of the rects which overlap it, and the lists are
+ * kept up to date as rects are registered, moved and unregistered. A 
+ * collision test only has to look at the rects listed in the cells the
+ * moving entity covers. Rects hanging off the edge of the map are listed
+ * in the nearest edge cells, and so are queries, so nothing is missed.
  */
 
 public class Walkmap {
@@ -14,10 +30,27 @@ public class Walkmap {
 	private byte[][] data;
 	private byte[][] data_slope;
 	private int w, h;
+	private int revision = 0;	//bumped by setTile(), see FlowField
 	
-	private Rectangle[] rects;
-	private boolean[] rectFree;
-	private static final int CAPACITY = 256;
+	//the rect registry
+	private static final int INITIAL_RECTS = 64;
+	private static final int SLOTBITS = 20, SLOTMASK = (1<<SLOTBITS)-1;
+	private static final int GENMASK = (1<<(31-SLOTBITS))-1;
+	private int[] rectX, rectY, rectW, rectH;
+	private int[] rectGen, nextFree;
+	private boolean[] rectLive;
+	private int rectCount = 0;
+	private int freeHead = -1;
+	
+	//the rect grid
+	private int[][] cellRects;
+	private int[] cellCount;
+	private Probe probe = new Probe();
+	
+	//the rect change log, see beginChangeLog()
+	private boolean logging = false;
+	private int[] changes = new int[64];
+	private int changeCount = 0;
 	
 	Walkmap( int width, int height)
 	{
@@ -26,13 +59,7 @@ public class Walkmap {
 		data = new byte[w][h];
 		data_slope = new byte[w][h];
 		
-		rects = new Rectangle[CAPACITY];
-		rectFree = new boolean[CAPACITY];
-		for( int i=0; i<rects.length; i++) 
-		{
-			rects[i] = new Rectangle();
-			rectFree[i] = true;
-		}
+		initRects();
 	}
 	
 	Walkmap( byte[][] src)
@@ -50,52 +77,260 @@ public class Walkmap {
 			data_slope[x][y] = (byte)(src[x][y]>>4);
 		}
 		
-		rects = new Rectangle[CAPACITY];
-		rectFree = new boolean[CAPACITY];
-		for( int i=0; i<rects.length; i++) 
+		initRects();
+	}
+	
+	/*
+	 * Constructs a Walkmap from the planes given by bake(), as stored
+	 * in a v2 NQR's collision section.
+	 */
+	
+	Walkmap( int width, int height, byte[] planes)
+	{
+		w = width;
+		h = height;
+		
+		data = new byte[w][h];
+		data_slope = new byte[w][h];
+		
+		for( int x=0; x<w; x++)
 		{
-			rects[i] = new Rectangle();
-			rectFree[i] = true;
+			System.arraycopy( planes, x*h, data[x], 0, h);
+			System.arraycopy( planes, (w+x)*h, data_slope[x], 0, h);
 		}
+		
+		initRects();
+	}
+	
+	/*
+	 * Returns the tile types and then the slope types, each a column
+	 * at a time, ready for the constructor above.
+	 */
+	
+	byte[] bake()
+	{
+		byte[] planes = new byte[2*w*h];
+		for( int x=0; x<w; x++)
+		{
+			System.arraycopy( data[x], 0, planes, x*h, h);
+			System.arraycopy( data_slope[x], 0, planes, (w+x)*h, h);
+		}
+		return planes;
+	}
+	
+	private void initRects()
+	{
+		rectX = new int[INITIAL_RECTS]; rectY = new int[INITIAL_RECTS];
+		rectW = new int[INITIAL_RECTS]; rectH = new int[INITIAL_RECTS];
+		rectGen = new int[INITIAL_RECTS];
+		nextFree = new int[INITIAL_RECTS];
+		rectLive = new boolean[INITIAL_RECTS];
+		
+		cellRects = new int[w*h][];
+		cellCount = new int[w*h];
+	}
+	
+	private void growRects()
+	{
+		int capacity = Math.min( rectX.length*2, SLOTMASK+1);
+		rectX = Arrays.copyOf( rectX, capacity); rectY = Arrays.copyOf( rectY, capacity);
+		rectW = Arrays.copyOf( rectW, capacity); rectH = Arrays.copyOf( rectH, capacity);
+		rectGen = Arrays.copyOf( rectGen, capacity);
+		nextFree = Arrays.copyOf( nextFree, capacity);
+		rectLive = Arrays.copyOf( rectLive, capacity);
 	}
 	
 	/*
 	 * Collision rectangle functions.
+	 * registerRect() only returns -1 once a million rects are registered.
 	 */
 	
 	public int registerRect( Rectangle rect)
 	{
-		int handle = -1;
-		for( int i=0; i<CAPACITY; i++) if ( rectFree[i] ) handle = i;
-		
-		if ( handle == -1 ) return -1;
+		int slot;
+		if ( freeHead != -1 )
+		{
+			slot = freeHead;
+			freeHead = nextFree[slot];
+		}
+		else
+		{
+			if ( rectCount == SLOTMASK+1 ) return -1;
+			if ( rectCount == rectX.length ) growRects();
+			slot = rectCount++;
+		}
 		
-		rects[handle].x = rect.x;
-		rects[handle].y = rect.y;
-		rects[handle].width = rect.width;
-		rects[handle].height = rect.height;
-		rectFree[handle] = false;
-		return handle;
+		rectX[slot] = rect.x;
+		rectY[slot] = rect.y;
+		rectW[slot] = rect.width;
+		rectH[slot] = rect.height;
+		rectLive[slot] = true;
+		if ( logging ) logChange( slot);
+		gridInsert( slot);
+		return (rectGen[slot] << SLOTBITS) | slot;
 	}
 	
 	public void updateRect( int handle, Rectangle rect)
 	{
-		if ( handle < CAPACITY && handle >= 0 )
+		int slot = slotOf( handle);
+		if ( slot == -1 ) return;
+		
+		boolean sameCells = cellX(rectX[slot]) == cellX(rect.x) && cellY(rectY[slot]) == cellY(rect.y)
+						 && cellX(rectX[slot]+rectW[slot]-1) == cellX(rect.x+rect.width-1)
+						 && cellY(rectY[slot]+rectH[slot]-1) == cellY(rect.y+rect.height-1)
+						 && (rectW[slot] > 0 && rectH[slot] > 0) == (rect.width > 0 && rect.height > 0);
+		
+		if ( logging ) logChange( slot);
+		if ( !sameCells ) gridRemove( slot);
+		rectX[slot] = rect.x;
+		rectY[slot] = rect.y;
+		rectW[slot] = rect.width;
+		rectH[slot] = rect.height;
+		if ( !sameCells ) gridInsert( slot);
+		if ( logging ) logChange( slot);
+	}
+	
+	public void unregisterRect( int handle)
+	{
+		int slot = slotOf( handle);
+		if ( slot == -1 ) return;
+		
+		if ( logging ) logChange( slot);
+		gridRemove( slot);
+		rectLive[slot] = false;
+		rectGen[slot] = (rectGen[slot]+1) & GENMASK;
+		nextFree[slot] = freeHead;
+		freeHead = slot;
+	}
+	
+	private int slotOf( int handle)
+	{
+		//returns the slot a handle refers to, or -1 if it's stale or invalid
+		if ( handle < 0 ) return -1;
+		
+		int slot = handle & SLOTMASK;
+		if ( slot >= rectCount || !rectLive[slot] || rectGen[slot] != handle>>>SLOTBITS ) return -1;
+		return slot;
+	}
+	
+	/*
+	 * The rect change log. Between beginChangeLog() and endChangeLog(), the
+	 * Walkmap notes every area which a collision rect enters or leaves.
+	 * rectsChangedNear() then says whether a moveAgainst() call which was
+	 * made before the log began might now give a different answer; see
+	 * ParallelStepper.
+	 */
+	
+	void beginChangeLog()
+	{
+		logging = true;
+		changeCount = 0;
+	}
+	
+	void endChangeLog()
+	{
+		logging = false;
+		changeCount = 0;
+	}
+	
+	boolean rectsChangedNear( int x, int y, int tw, int th, int xvel, int yvel)
+	{
+		//moveAgainst() never looks further than this from the entity's box:
+		//each pixel of travel can be accompanied by up to two pixels of
+		//sliding, and every probe is one pixel beyond the entity
+		int reach = 3*(Math.abs(xvel) + Math.abs(yvel)) + 4;
+		int x1 = x-tw/2-reach, y1 = y-th/2-reach;
+		int x2 = x-tw/2+tw+reach, y2 = y-th/2+th+reach;
+		
+		for( int i=0; i<changeCount; i+=4)
 		{
-			if ( rectFree[handle] == false )
-			{
-				rects[handle].x = rect.x;
-				rects[handle].y = rect.y;
-				rects[handle].width = rect.width;
-				rects[handle].height = rect.height;
-			}
+			if ( changes[i] < x2 && x1 < changes[i]+changes[i+2] 
+			  && changes[i+1] < y2 && y1 < changes[i+1]+changes[i+3] ) return true;
+		}
+		
+		return false;
+	}
+	
+	private void logChange( int slot)
+	{
+		if ( rectW[slot] <= 0 || rectH[slot] <= 0 ) return;
+		if ( changeCount == changes.length ) changes = Arrays.copyOf( changes, changeCount*2);
+		
+		changes[changeCount++] = rectX[slot];
+		changes[changeCount++] = rectY[slot];
+		changes[changeCount++] = rectW[slot];
+		changes[changeCount++] = rectH[slot];
+	}
+	
+	/*
+	 * Scratch space for the rect grid queries made by moveAgainst(), so that
+	 * a rect listed in several cells is only tested once. Each thread making
+	 * queries needs its own.
+	 */
+	
+	static class Probe {
+		
+		int[] rectStamp = new int[0];
+		int stamp = 0;
+		
+		int nextStamp()
+		{
+			if ( ++stamp == 0 ) { Arrays.fill( rectStamp, 0); stamp = 1; }
+			return stamp;
 		}
 	}
 	
-	public void unregisterRect( int handle)
+	/*
+	 * The rect grid, which lists slots rather than handles. A rect with no
+	 * area can't collide with anything, so it isn't listed in any cell.
+	 */
+	
+	private int cellX( int px)
+	{
+		int cx = Math.floorDiv( px, Room.TILEW);
+		return ( cx < 0 ) ? 0 : ( cx >= w ) ? w-1 : cx;
+	}
+	
+	private int cellY( int py)
+	{
+		int cy = Math.floorDiv( py, Room.TILEH);
+		return ( cy < 0 ) ? 0 : ( cy >= h ) ? h-1 : cy;
+	}
+	
+	private void gridInsert( int slot)
 	{
-		if ( handle != -1 )
-		rectFree[handle] = true;
+		if ( rectW[slot] <= 0 || rectH[slot] <= 0 ) return;
+		
+		int cx2 = cellX(rectX[slot]+rectW[slot]-1), cy2 = cellY(rectY[slot]+rectH[slot]-1);
+		for( int cy=cellY(rectY[slot]); cy<=cy2; cy++)
+		for( int cx=cellX(rectX[slot]); cx<=cx2; cx++)
+		{
+			int cell = cx + cy*w;
+			if ( cellRects[cell] == null ) cellRects[cell] = new int[4];
+			if ( cellCount[cell] == cellRects[cell].length ) 
+				cellRects[cell] = Arrays.copyOf( cellRects[cell], cellCount[cell]*2);
+			
+			cellRects[cell][cellCount[cell]++] = slot;
+		}
+	}
+	
+	private void gridRemove( int slot)
+	{
+		if ( rectW[slot] <= 0 || rectH[slot] <= 0 ) return;
+		
+		int cx2 = cellX(rectX[slot]+rectW[slot]-1), cy2 = cellY(rectY[slot]+rectH[slot]-1);
+		for( int cy=cellY(rectY[slot]); cy<=cy2; cy++)
+		for( int cx=cellX(rectX[slot]); cx<=cx2; cx++)
+		{
+			int cell = cx + cy*w;
+			int[] list = cellRects[cell];
+			for( int i=0; i<cellCount[cell]; i++)
+			{
+				if ( list[i] != slot ) continue;
+				list[i] = list[--cellCount[cell]];
+				break;
+			}
+		}
 	}
 	
 	/*
@@ -103,12 +338,26 @@ public class Walkmap {
 	 */
 	
 	public Point moveAgainst( int x, int y, int tw, int th, int xvel, int yvel, int rectToIgnore)
+	{
+		return moveAgainst( x, y, tw, th, xvel, yvel, rectToIgnore, probe);
+	}
+	
+	/*
+	 * As above, but using the caller's own Probe. Any number of threads may
+	 * call this at once, as long as nothing is changing the Walkmap.
+	 */
+	
+	Point moveAgainst( int x, int y, int tw, int th, int xvel, int yvel, int rectToIgnore, Probe probe)
 	{
 		//returns the resulting location if a rectangular entity of
 		//size (tw,th) and centre (x,y) were to attempt to move 
 		//across the tilemap with the given velocity.
 		
 		Point p = new Point(x,y);
+		if ( probe.rectStamp.length < rectX.length ) probe.rectStamp = new int[rectX.length];
+		
+		//below here, the rect to ignore is referred to by its slot
+		rectToIgnore = slotOf( rectToIgnore);
 		
 		int xdiff = Integer.signum(xvel);
 		int ydiff = Integer.signum(yvel);
@@ -116,24 +365,32 @@ public class Walkmap {
 		int hlimit = (int) Math.floor( (Room.TILEW/(double)Room.TILEH)+0.1) + 1;
 		int vlimit = (int) Math.floor( (Room.TILEH/(double)Room.TILEW)+0.1) + 1;
 		
-		//horizontal movement
+		//horizontal movement. the entity travels freely up to the next 
+		//collision, which freeRun() finds in one sweep; when it's blocked, 
+		//it tries to slide past diagonally, which costs an extra pixel.
+		//if it can't, every remaining pixel would be blocked the same way.
 		if ( xdiff != 0 )
-		for( int c=0; Math.abs(c)<Math.abs(xvel); c+=xdiff )
 		{
-			if ( doesIntersect(p.x+xdiff, p.y, tw, th, rectToIgnore) == false ) p.x += xdiff;
-			else
+			int remaining = Math.abs(xvel);
+			while ( remaining > 0 )
 			{
+				int run = freeRun( p.x, p.y, tw, th, true, xdiff, remaining, rectToIgnore, probe);
+				p.x += run*xdiff;
+				remaining -= run;
+				if ( remaining == 0 ) break;
+				
 				//allow for "sliding" across slopes
 				boolean moveDone = false;
 				for( int i=1; i<=vlimit && !moveDone; i++)
 				{
-					if ( doesIntersect(p.x+xdiff, p.y+i, tw, th, rectToIgnore) == false ) 
+					if ( doesIntersect(p.x+xdiff, p.y+i, tw, th, rectToIgnore, probe) == false ) 
 					{ p.x += xdiff; p.y += i; moveDone = true; }
-					else if ( doesIntersect(p.x+xdiff, p.y-i, tw, th, rectToIgnore) == false ) 
+					else if ( doesIntersect(p.x+xdiff, p.y-i, tw, th, rectToIgnore, probe) == false ) 
 					{ p.x += xdiff; p.y -= i; moveDone = true; }
 				}
 				
-				if ( moveDone ) c+=xdiff;
+				if ( !moveDone ) break;
+				remaining -= 2;
 			}
 		}
 		
@@ -142,31 +399,169 @@ public class Walkmap {
 		if ( slopeAt(x,y) == 1 ) { yvel -= (int)(((float)xvel)/aspect); ydiff = Integer.signum(yvel); }
 		if ( slopeAt(x,y) == 2 ) { yvel += (int)(((float)xvel)/aspect); ydiff = Integer.signum(yvel); }
 		
-		//vertical movement
+		//vertical movement, likewise. there's no sliding on sloped floors.
 		if ( ydiff != 0 )
-		for( int c=0; Math.abs(c)<Math.abs(yvel); c+=ydiff )
 		{
-			if ( doesIntersect(p.x, p.y+ydiff, tw, th, rectToIgnore) == false ) p.y += ydiff;
-			else if ( slopeAt(x,y) == 0 )
+			int remaining = Math.abs(yvel);
+			while ( remaining > 0 )
 			{
+				int run = freeRun( p.x, p.y, tw, th, false, ydiff, remaining, rectToIgnore, probe);
+				p.y += run*ydiff;
+				remaining -= run;
+				if ( remaining == 0 || slopeAt(x,y) != 0 ) break;
+				
 				//allow for "sliding" across slopes
 				boolean moveDone = false;
 				for( int i=1; i<=hlimit && !moveDone; i++)
 				{
-					if ( doesIntersect(p.x+i, p.y+ydiff, tw, th, rectToIgnore) == false ) 
+					if ( doesIntersect(p.x+i, p.y+ydiff, tw, th, rectToIgnore, probe) == false ) 
 					{ p.x += i; p.y += ydiff; moveDone = true;}
-					else if ( doesIntersect(p.x-i, p.y+ydiff, tw, th, rectToIgnore) == false ) 
+					else if ( doesIntersect(p.x-i, p.y+ydiff, tw, th, rectToIgnore, probe) == false ) 
 					{ p.x -= i; p.y += ydiff; moveDone = true; }
 				}
 				
-				if ( moveDone ) c+=ydiff;
+				if ( !moveDone ) break;
+				remaining -= 2;
 			}
 		}
 		
 		return p;
 	}
 	
-	private boolean doesIntersect( int x, int y, int tw, int th, int rectToIgnore)
+	private int freeRun( int x, int y, int tw, int th, boolean horizontal, int dir, int max, int rectToIgnore, Probe probe)
+	{
+		//returns how many pixels a (tw,th) entity with centre (x,y) can
+		//travel along one axis, in direction dir, before doesIntersect()
+		//would report a collision. gives up looking after max pixels.
+		
+		//entities this thin don't fit the tile arithmetic below
+		if ( tw < 2 || th < 2 )
+		{
+			for( int k=1; k<=max; k++)
+			{
+				if ( horizontal && doesIntersect( x+dir*k, y, tw, th, rectToIgnore, probe) ) return k-1;
+				if ( !horizontal && doesIntersect( x, y+dir*k, tw, th, rectToIgnore, probe) ) return k-1;
+			}
+			return max;
+		}
+		
+		//stop short of the first collision rect
+		max = Math.min( max, firstRectHit( x, y, tw, th, horizontal, dir, max, rectToIgnore, probe)-1);
+		
+		//then sweep across the tiles. "a" runs along the direction of
+		//movement and "b" across it; the b range of tiles never changes.
+		int size = horizontal ? Room.TILEW : Room.TILEH;
+		int crossSize = horizontal ? Room.TILEH : Room.TILEW;
+		int la = horizontal ? tw : th, lb = horizontal ? th : tw;
+		int ca = horizontal ? x : y, cb = horizontal ? y : x;
+		int amax = horizontal ? w : h, bmax = horizontal ? h : w;
+		
+		int b1 = Math.floorDiv( cb-lb/2, crossSize);
+		int b2 = Math.floorDiv( cb+lb/2-1, crossSize);
+		if ( b1 < 0 || b2 >= bmax ) return 0;	//off the edge of the map, which counts as solid
+		
+		int k = 1;
+		while ( k <= max )
+		{
+			//the entity covers the same tiles until either edge crosses into another
+			int v1 = ca+dir*k-la/2, v2 = ca+dir*k+la/2-1;
+			int a1 = Math.floorDiv( v1, size), a2 = Math.floorDiv( v2, size);
+			if ( a1 < 0 || a2 >= amax ) return k-1;
+			
+			int kend = k-1 + Math.min( untilNextTile( v1, dir, size), untilNextTile( v2, dir, size));
+			if ( kend > max ) kend = max;
+			
+			//solid tiles block straight away; slopes have to be tested pixel by pixel
+			boolean slopes = false;
+			for( int a=a1; a<=a2; a++)
+			for( int b=b1; b<=b2; b++)
+			{
+				int type = horizontal ? getTile(a,b) : getTile(b,a);
+				if ( type == 1 ) return k-1;
+				if ( type > 1 && type <= 5 ) slopes = true;
+			}
+			
+			if ( slopes )
+			for( int kk=k; kk<=kend; kk++)
+			{
+				int px = horizontal ? x+dir*kk : x;
+				int py = horizontal ? y : y+dir*kk;
+				
+				for( int a=a1; a<=a2; a++)
+				for( int b=b1; b<=b2; b++)
+				{
+					int tx = horizontal ? a : b, ty = horizontal ? b : a;
+					int type = getTile(tx,ty);
+					if ( type > 1 && type <= 5 && doesIntersectTile( tx, ty, px, py, tw, th) ) return kk-1;
+				}
+			}
+			
+			k = kend+1;
+		}
+		
+		return max;
+	}
+	
+	private int untilNextTile( int v, int dir, int size)
+	{
+		//how far coordinate v can move in direction dir before it's in another tile
+		if ( dir > 0 ) return size - Math.floorMod( v, size);
+		else return Math.floorMod( v, size) + 1;
+	}
+	
+	private int firstRectHit( int x, int y, int tw, int th, boolean horizontal, int dir, int max, int rectToIgnore, Probe probe)
+	{
+		//returns the first step (1 to max) along the axis at which a (tw,th)
+		//entity with centre (x,y) would overlap a collision rect, or max+1
+		
+		int ex = x-tw/2, ey = y-th/2;
+		int sx1 = ex, sx2 = ex+tw-1, sy1 = ey, sy2 = ey+th-1;
+		if ( horizontal ) { if ( dir > 0 ) sx2 += max; else sx1 -= max; }
+		else { if ( dir > 0 ) sy2 += max; else sy1 -= max; }
+		
+		int hit = max+1;
+		int[] rectStamp = probe.rectStamp;
+		int stamp = probe.nextStamp();
+		
+		//look at every rect in the cells the entity sweeps across
+		int cx2 = cellX(sx2), cy2 = cellY(sy2);
+		for( int cy=cellY(sy1); cy<=cy2; cy++)
+		for( int cx=cellX(sx1); cx<=cx2; cx++)
+		{
+			int cell = cx + cy*w;
+			int[] list = cellRects[cell];
+			for( int i=0; i<cellCount[cell]; i++)
+			{
+				int slot = list[i];
+				if ( slot == rectToIgnore || rectStamp[slot] == stamp ) continue;
+				rectStamp[slot] = stamp;
+				
+				//the rect has to overlap the entity across the direction of movement,
+				//and then they overlap for every step strictly between lo and hi
+				int rx = rectX[slot], ry = rectY[slot], rw = rectW[slot], rh = rectH[slot];
+				int lo, hi;
+				if ( horizontal )
+				{
+					if ( ry >= ey+th || ey >= ry+rh ) continue;
+					lo = ( dir > 0 ) ? rx-ex-tw : ex-rx-rw;
+					hi = ( dir > 0 ) ? rx+rw-ex : ex+tw-rx;
+				}
+				else
+				{
+					if ( rx >= ex+tw || ex >= rx+rw ) continue;
+					lo = ( dir > 0 ) ? ry-ey-th : ey-ry-rh;
+					hi = ( dir > 0 ) ? ry+rh-ey : ey+th-ry;
+				}
+				
+				int k = Math.max( 1, lo+1);
+				if ( k < hi && k < hit ) hit = k;
+			}
+		}
+		
+		return hit;
+	}
+	
+	private boolean doesIntersect( int x, int y, int tw, int th, int rectToIgnore, Probe probe)
 	{
 		//returns whether a (tw,th) entity with center (x,y) intersects
 		//with any part of the collision map
@@ -194,35 +589,90 @@ public class Walkmap {
 			if ( doesIntersectTile( ix, iy, x, y, tw, th) ) return true;
 		}
 		
-		Rectangle entity = new Rectangle( x-tw/2, y-th/2, tw, th);
+		//test each collision rect listed in the cells the entity covers.
+		//a rect spanning several cells is only tested once.
+		int ex = x-tw/2, ey = y-th/2;
+		if ( tw <= 0 || th <= 0 ) return false;
+		int[] rectStamp = probe.rectStamp;
+		int stamp = probe.nextStamp();
 		
-		//test each collision rect
-		for( int i=0; i<CAPACITY; i++)
+		int cx2 = cellX(ex+tw-1), cy2 = cellY(ey+th-1);
+		for( int cy=cellY(ey); cy<=cy2; cy++)
+		for( int cx=cellX(ex); cx<=cx2; cx++)
 		{
-			if ( i != rectToIgnore )
-			if ( rectFree[i] == false )
-			if ( rects[i].intersects(entity) ) return true;
+			int cell = cx + cy*w;
+			int[] list = cellRects[cell];
+			for( int i=0; i<cellCount[cell]; i++)
+			{
+				int slot = list[i];
+				if ( slot == rectToIgnore || rectStamp[slot] == stamp ) continue;
+				rectStamp[slot] = stamp;
+				
+				if ( rectX[slot] < ex+tw && ex < rectX[slot]+rectW[slot] 
+				  && rectY[slot] < ey+th && ey < rectY[slot]+rectH[slot] ) return true;
+			}
 		}
 		
 		return false;
 	}
 	
-	private boolean doesIntersectTile( int tx, int ty, int x, int y, int tw, int th)
+	boolean doesIntersectTile( int tx, int ty, int x, int y, int tw, int th)
 	{
 		//returns whether a (tw,th) entity with center (x,y) 
 		//intersects with the tile in gridsquare (tx,ty)
 		
-		Rectangle rectTile = new Rectangle( tx*Room.TILEW, ty*Room.TILEH, Room.TILEW, Room.TILEH);
-		Rectangle rectEntity = new Rectangle( x-tw/2, y-th/2, tw, th);
+		if ( tw <= 0 || th <= 0 ) return false;
+		
+		//retrieve the intersection of the two rectangles, relative to the tile
+		int x1 = Math.max( x-tw/2 - tx*Room.TILEW, 0);
+		int y1 = Math.max( y-th/2 - ty*Room.TILEH, 0);
+		int x2 = Math.min( x-tw/2+tw - tx*Room.TILEW, Room.TILEW);
+		int y2 = Math.min( y-th/2+th - ty*Room.TILEH, Room.TILEH);
+		if ( x1 >= x2 || y1 >= y2 ) return false;
+		
+		//test it against the tile's solid pixels, a row at a time
+		int[] mask = SLOPEMASKS[getTile(tx,ty)];
+		int bits = ((1 << (x2-x1)) - 1) << x1;
+		for( int row=y1; row<y2; row++)
+		{
+			if ( (mask[row] & bits) != 0 ) return true;
+		}
+		
+		return false;
+	}
+	
+	/*
+	 * Sloped tiles are half solid, split along one diagonal. SLOPEMASKS holds
+	 * a bitmask of the solid pixels in each row of each tile type (all clear,
+	 * for types which aren't slopes). The masks are built from the original
+	 * floating-point definitions below, applied to each pixel in turn; since 
+	 * those definitions only depend on the corner of the intersection which 
+	 * is nearest the diagonal, an intersection hits a slope exactly when it 
+	 * contains one of its solid pixels. bench/quest/field/SlopeMaskCheck
+	 * checks that against the definitions, for every tile type and offset.
+	 */
+	
+	private static final int[][] SLOPEMASKS = buildSlopeMasks();
+	
+	private static int[][] buildSlopeMasks()
+	{
+		int[][] masks = new int[16][Room.TILEH];
 		
-		//retrieve the intersection of the two rectangles
-		if ( rectTile.intersects(rectEntity) == false ) return false;
-		Rectangle rect = rectTile.intersection(rectEntity);
+		for( int type=2; type<=5; type++)
+		for( int py=0; py<Room.TILEH; py++)
+		for( int px=0; px<Room.TILEW; px++)
+		{
+			if ( slopeCovers( type, new Rectangle( px, py, 1, 1)) ) masks[type][py] |= 1 << px;
+		}
 		
-		//set that intersection relative to the tile
-		rect.x -= rectTile.x; rect.y -= rectTile.y;
+		return masks;
+	}
+	
+	static boolean slopeCovers( int type, Rectangle rect)
+	{
+		//whether a rectangle, relative to the topleft of a tile of the 
+		//given type and lying within it, overlaps the tile's solid half
 		
-		int type = getTile(tx,ty);
 		float px, py;
 		
 		switch( type )
@@ -282,6 +732,7 @@ public class Walkmap {
 	{
 		if ( x < 0 || x >= w || y < 0 || y >= h ) return;
 		data[x][y] = val;
+		revision++;
 	}
 	
 	public byte getSlope( int x, int y)
@@ -298,5 +749,6 @@ public class Walkmap {
 	
 	public int getWidth() { return w; }
 	public int getHeight() { return h; }
+	public int getRevision() { return revision; }
 	
 }